@@ -0,0 +1,225 @@
+package edu.buffalo.bmi.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.OWLRendererException;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClassAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLDataPropertyAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLIndividual;
+import org.semanticweb.owlapi.model.OWLObjectPropertyAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.parameters.Imports;
+
+import com.google.common.io.CharStreams;
+
+import edu.buffalo.bmi.csneps.CSNePSSyntaxRenderer;
+import edu.buffalo.bmi.csneps.OWLCSNePSSyntaxRenderer;
+
+/**
+ * Times the renderer on ABox assertions, on a synthetic ontology that is
+ * almost all class, object property and data property assertions.
+ *
+ * Three things are timed: reading each ABox axiom's class or property,
+ * individuals and literal out of the OWL API without writing anything,
+ * writing just the ABox axioms, one after another, and rendering the whole
+ * ontology as the converter does. Output goes to an in-memory buffer, as it
+ * does in the converter, which is emptied before each pass. Each figure is
+ * the median of the timed passes, after warm-up passes that are not
+ * counted.
+ *
+ * The first figure is a floor for the second. On a 1M-axiom ontology, just
+ * reading an assertion's objects took about 500 ns, and writing it only
+ * about 130 ns more, so a special-cased writer for assertions gained
+ * nothing measurable; a faster ABox needs fewer OWL API objects, not a
+ * faster renderer.
+ */
+public class AboxBenchmark {
+
+	static final String USAGE = "Usage: AboxBenchmark [options]\n"
+			+ "Options:\n"
+			+ "  --individuals <n>       number of individuals (default 200000)\n"
+			+ "  --links <n>             object property assertions per individual\n"
+			+ "                          (default 2)\n"
+			+ "  --warmup <n>            untimed passes first (default 3)\n"
+			+ "  --repeat <n>            timed passes; the median is kept (default 5)\n"
+			+ "  --out <dir>             where the ontology goes (default bench)";
+
+	/**
+	 * @param args
+	 *        the command line arguments
+	 */
+	public static void main(String[] args) {
+		OntologyGenerator gen = new OntologyGenerator();
+		gen.classes = 100;
+		gen.individuals = 200000;
+		gen.restrictions = 0;
+		gen.annotations = 0;
+		int warmup = 3;
+		int repeat = 5;
+		File outDir = new File("bench");
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				switch (arg) {
+				case "--individuals":
+					gen.individuals = Integer.parseInt(value(args, ++i, arg));
+					break;
+				case "--links":
+					gen.links = Integer.parseInt(value(args, ++i, arg));
+					break;
+				case "--warmup":
+					warmup = Integer.parseInt(value(args, ++i, arg));
+					break;
+				case "--repeat":
+					repeat = Integer.parseInt(value(args, ++i, arg));
+					break;
+				case "--out":
+					outDir = new File(value(args, ++i, arg));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if (repeat < 1) {
+				throw new IllegalArgumentException("--repeat must be at least 1");
+			}
+		} catch (NumberFormatException e) {
+			System.out.println("Expected a number: " + e.getMessage());
+			System.out.println(USAGE);
+			System.exit(1);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(1);
+		}
+
+		OWLOntology ontology = null;
+		try {
+			outDir.mkdirs();
+			File file = new File(outDir, "abox-" + gen.individuals + ".ofn");
+			gen.write(file);
+			ontology = OWLManager.createOWLOntologyManager()
+					.loadOntologyFromOntologyDocument(file);
+		} catch (IOException | OWLOntologyCreationException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		List<OWLAxiom> abox = new ArrayList<>(ontology.getABoxAxioms(Imports.EXCLUDED));
+		System.out.println(String.format(Locale.ROOT,
+				"%d axioms, of which %d ABox (%.1f%%)", ontology.getAxiomCount(),
+				abox.size(), 100.0 * abox.size() / ontology.getAxiomCount()));
+
+		StringBuilder sink = new StringBuilder();
+		long[] readPasses = new long[repeat];
+		long[] aboxPasses = new long[repeat];
+		long[] renderPasses = new long[repeat];
+		long checksum = 0;
+		for (int r = -warmup; r < repeat; r++) {
+			long start = System.nanoTime();
+			checksum += readAbox(abox);
+			long readTime = System.nanoTime() - start;
+			sink.setLength(0);
+			start = System.nanoTime();
+			writeAbox(ontology, abox, CharStreams.asWriter(sink));
+			long aboxTime = System.nanoTime() - start;
+			sink.setLength(0);
+			start = System.nanoTime();
+			try {
+				new OWLCSNePSSyntaxRenderer().render(ontology, CharStreams.asWriter(sink));
+			} catch (OWLRendererException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			if (r >= 0) {
+				readPasses[r] = readTime;
+				aboxPasses[r] = aboxTime;
+				renderPasses[r] = System.nanoTime() - start;
+			}
+		}
+		if (checksum == 42) {
+			// keeps the reads from being optimised away
+			System.out.println();
+		}
+
+		report("ABox read only", abox.size(), median(readPasses));
+		report("ABox axioms only", abox.size(), median(aboxPasses));
+		report("whole ontology", ontology.getAxiomCount(), median(renderPasses));
+	}
+
+	/**
+	 * Reads what the renderer reads from each assertion: its class or
+	 * property, the IRIs of its individuals and its literal.
+	 *
+	 * @return a sum of the lengths read, so the reads have a use
+	 */
+	private static long readAbox(List<OWLAxiom> abox) {
+		long sum = 0;
+		for (OWLAxiom ax : abox) {
+			if (ax instanceof OWLClassAssertionAxiom) {
+				OWLClassAssertionAxiom ca = (OWLClassAssertionAxiom) ax;
+				sum += ca.getClassExpression().hashCode();
+				sum += iriLength(ca.getIndividual());
+			} else if (ax instanceof OWLObjectPropertyAssertionAxiom) {
+				OWLObjectPropertyAssertionAxiom pa = (OWLObjectPropertyAssertionAxiom) ax;
+				sum += pa.getProperty().hashCode();
+				sum += iriLength(pa.getSubject()) + iriLength(pa.getObject());
+			} else if (ax instanceof OWLDataPropertyAssertionAxiom) {
+				OWLDataPropertyAssertionAxiom pa = (OWLDataPropertyAssertionAxiom) ax;
+				sum += pa.getProperty().hashCode();
+				sum += iriLength(pa.getSubject()) + pa.getObject().getLiteral().length();
+			}
+		}
+		return sum;
+	}
+
+	private static int iriLength(OWLIndividual individual) {
+		if (!individual.isNamed()) {
+			return 0;
+		}
+		IRI iri = individual.asOWLNamedIndividual().getIRI();
+		return iri.getNamespace().length() + iri.getRemainder().or("").length();
+	}
+
+	private static void writeAbox(OWLOntology ontology, List<OWLAxiom> abox, Writer out) {
+		CSNePSSyntaxRenderer renderer = new CSNePSSyntaxRenderer(ontology, out);
+		try {
+			for (OWLAxiom ax : abox) {
+				ax.accept(renderer);
+				out.write('\n');
+			}
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private static void report(String what, long axioms, long nanos) {
+		System.out.println(String.format(Locale.ROOT,
+				"%-17s %,12.0f axioms/s   %,8.0f ns/axiom", what,
+				axioms * 1e9 / nanos, (double) nanos / axioms));
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException(option + " requires a value");
+		}
+		return args[i];
+	}
+}
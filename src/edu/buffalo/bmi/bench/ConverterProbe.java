@@ -0,0 +1,61 @@
+package edu.buffalo.bmi.bench;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import edu.buffalo.bmi.converter.Converter;
+
+/**
+ * Runs the {@link Converter} in this JVM and then reports what the run
+ * cost, for {@link ScalingBenchmark}. The report is one line on stderr:
+ * {@code PROBE <gc millis> <peak RSS bytes> <peak heap bytes>}. Peak RSS
+ * comes from /proc and is -1 where that is not available.
+ */
+public class ConverterProbe {
+
+	static final String PREFIX = "PROBE ";
+
+	/**
+	 * @param args
+	 *        the {@link Converter} arguments
+	 */
+	public static void main(String[] args) {
+		Converter.main(args);
+
+		long gcMillis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcMillis += Math.max(0, gc.getCollectionTime());
+		}
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+		System.err.println(PREFIX + gcMillis + " " + peakRss() + " " + peakHeap);
+	}
+
+	/**
+	 * @return the peak resident set size of this process, or -1 if unknown
+	 */
+	private static long peakRss() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"),
+					StandardCharsets.US_ASCII)) {
+				if (line.startsWith("VmHWM:")) {
+					String[] fields = line.trim().split("\\s+");
+					return Long.parseLong(fields[1]) * 1024;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// not Linux
+		}
+		return -1;
+	}
+}
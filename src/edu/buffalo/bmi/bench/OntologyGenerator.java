@@ -0,0 +1,283 @@
+package edu.buffalo.bmi.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes synthetic ontologies in OWL functional syntax, for reproducing
+ * scaling behaviour without the real ontologies that show it.
+ *
+ * The class hierarchy is built level by level: each level holds up to
+ * fan-out times as many classes as the one above, the last level takes
+ * whatever is left, and every class below the root gets a parent chosen at
+ * random from the level above. A fraction of the classes also get a
+ * superclass restriction nested to the configured depth. Each individual
+ * is typed with a random class and linked to other individuals. The output
+ * is written as it is generated, so ontologies far larger than the heap can
+ * be produced.
+ */
+public class OntologyGenerator {
+
+	static final String USAGE = "Usage: OntologyGenerator [options] <outfile>\n"
+			+ "Options:\n"
+			+ "  --classes <n>           number of classes (default 1000)\n"
+			+ "  --individuals <n>       number of individuals (default 1000)\n"
+			+ "  --depth <n>             levels in the class hierarchy (default 8)\n"
+			+ "  --fanout <n>            most subclasses per class above the last level\n"
+			+ "                          (default 4)\n"
+			+ "  --restrictions <f>      fraction of classes with a restriction (default 0.3)\n"
+			+ "  --nesting <n>           nesting depth of each restriction (default 2)\n"
+			+ "  --properties <n>        number of object properties (default 10)\n"
+			+ "  --links <n>             property assertions per individual (default 2)\n"
+			+ "  --annotations <f>       annotation assertions per entity (default 2)\n"
+			+ "  --rules <n>             number of SWRL rules (default 0)\n"
+			+ "  --seed <n>              random seed (default 42)";
+
+	private static final String NS = "http://example.org/synthetic#";
+	private static final String VAR = "urn:swrl:var#";
+
+	int classes = 1000;
+	int individuals = 1000;
+	int depth = 8;
+	int fanout = 4;
+	double restrictions = 0.3;
+	int nesting = 2;
+	int properties = 10;
+	int links = 2;
+	double annotations = 2;
+	int rules = 0;
+	long seed = 42;
+
+	private Random random;
+	private int[] levelStart;
+
+	/**
+	 * @param args
+	 *        the command line arguments
+	 */
+	public static void main(String[] args) {
+		OntologyGenerator gen = new OntologyGenerator();
+		String outfile = null;
+		try {
+			List<String> positional = gen.parse(args);
+			if (positional.size() != 1) {
+				throw new IllegalArgumentException("Expected <outfile>");
+			}
+			outfile = positional.get(0);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(1);
+		}
+		try {
+			gen.write(new File(outfile));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Sets the generator options from command line arguments.
+	 *
+	 * @param args
+	 *        the arguments
+	 * @return the non-option arguments
+	 * @throws IllegalArgumentException
+	 *         if the arguments are not valid
+	 */
+	List<String> parse(String[] args) {
+		List<String> positional = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				positional.add(arg);
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException(arg + " requires a value");
+			}
+			String value = args[++i];
+			try {
+				switch (arg) {
+				case "--classes":
+					classes = Integer.parseInt(value);
+					break;
+				case "--individuals":
+					individuals = Integer.parseInt(value);
+					break;
+				case "--depth":
+					depth = Integer.parseInt(value);
+					break;
+				case "--fanout":
+					fanout = Integer.parseInt(value);
+					break;
+				case "--restrictions":
+					restrictions = Double.parseDouble(value);
+					break;
+				case "--nesting":
+					nesting = Integer.parseInt(value);
+					break;
+				case "--properties":
+					properties = Integer.parseInt(value);
+					break;
+				case "--links":
+					links = Integer.parseInt(value);
+					break;
+				case "--annotations":
+					annotations = Double.parseDouble(value);
+					break;
+				case "--rules":
+					rules = Integer.parseInt(value);
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(arg + " expects a number");
+			}
+		}
+		if (classes < 1 || depth < 1 || fanout < 1 || properties < 1) {
+			throw new IllegalArgumentException(
+					"--classes, --depth, --fanout and --properties must be at least 1");
+		}
+		return positional;
+	}
+
+	/**
+	 * Writes an ontology with the current settings. The same settings and
+	 * seed always give the same ontology.
+	 *
+	 * @param file
+	 *        the file to write
+	 * @throws IOException
+	 *         if the file cannot be written
+	 */
+	void write(File file) throws IOException {
+		random = new Random(seed);
+		buildLevels();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+			out.write("Prefix(:=<" + NS + ">)\n");
+			out.write("Prefix(rdfs:=<http://www.w3.org/2000/01/rdf-schema#>)\n");
+			out.write("Prefix(xsd:=<http://www.w3.org/2001/XMLSchema#>)\n");
+			out.write("Ontology(<http://example.org/synthetic>\n");
+
+			for (int p = 0; p < properties; p++) {
+				out.write("Declaration(ObjectProperty(:p" + p + "))\n");
+			}
+			out.write("Declaration(DataProperty(:d0))\n");
+			for (int c = 0; c < classes; c++) {
+				out.write("Declaration(Class(:C" + c + "))\n");
+			}
+			for (int i = 0; i < individuals; i++) {
+				out.write("Declaration(NamedIndividual(:i" + i + "))\n");
+			}
+
+			for (int c = levelStart[1]; c < classes; c++) {
+				out.write("SubClassOf(:C" + c + " :C" + parent(c) + ")\n");
+			}
+			for (int c = 0; c < classes; c++) {
+				if (random.nextDouble() < restrictions) {
+					out.write("SubClassOf(:C" + c + " ");
+					writeRestriction(out, nesting);
+					out.write(")\n");
+				}
+			}
+
+			for (int i = 0; i < individuals; i++) {
+				out.write("ClassAssertion(:C" + random.nextInt(classes) + " :i" + i + ")\n");
+				for (int l = 0; l < links && individuals > 1; l++) {
+					out.write("ObjectPropertyAssertion(:p" + random.nextInt(properties)
+							+ " :i" + i + " :i" + random.nextInt(individuals) + ")\n");
+				}
+				out.write("DataPropertyAssertion(:d0 :i" + i + " \"" + random.nextInt(1000)
+						+ "\"^^xsd:integer)\n");
+			}
+
+			for (int c = 0; c < classes; c++) {
+				writeAnnotations(out, "C" + c);
+			}
+			for (int i = 0; i < individuals; i++) {
+				writeAnnotations(out, "i" + i);
+			}
+
+			for (int r = 0; r < rules; r++) {
+				writeRule(out);
+			}
+			out.write(")\n");
+		}
+	}
+
+	private void buildLevels() {
+		List<Integer> starts = new ArrayList<>();
+		int start = 0;
+		long size = 1;
+		for (int level = 0; level < depth && start < classes; level++) {
+			starts.add(start);
+			start += level == depth - 1 ? classes - start : (int) Math.min(size, classes - start);
+			size = Math.min(size * fanout, classes);
+		}
+		starts.add(classes);
+		levelStart = new int[starts.size()];
+		for (int i = 0; i < levelStart.length; i++) {
+			levelStart[i] = starts.get(i);
+		}
+	}
+
+	private int parent(int c) {
+		int level = 1;
+		while (levelStart[level + 1] <= c) {
+			level++;
+		}
+		int above = levelStart[level - 1];
+		return above + random.nextInt(levelStart[level] - above);
+	}
+
+	private void writeRestriction(Writer out, int nest) throws IOException {
+		String p = ":p" + random.nextInt(properties);
+		String filler = ":C" + random.nextInt(classes);
+		if (nest <= 1) {
+			out.write("ObjectSomeValuesFrom(" + p + " " + filler + ")");
+			return;
+		}
+		if (random.nextBoolean()) {
+			out.write("ObjectSomeValuesFrom(" + p + " ObjectIntersectionOf(" + filler + " ");
+		} else {
+			out.write("ObjectAllValuesFrom(" + p + " ObjectUnionOf(" + filler + " ");
+		}
+		writeRestriction(out, nest - 1);
+		out.write("))");
+	}
+
+	private void writeAnnotations(Writer out, String name) throws IOException {
+		int n = (int) annotations;
+		if (random.nextDouble() < annotations - n) {
+			n++;
+		}
+		for (int a = 0; a < n; a++) {
+			String property = a == 0 ? "rdfs:label" : "rdfs:comment";
+			out.write("AnnotationAssertion(" + property + " :" + name + " \"" + name
+					+ " annotation " + a + "\")\n");
+		}
+	}
+
+	private void writeRule(Writer out) throws IOException {
+		String x = "Variable(<" + VAR + "x>)";
+		String y = "Variable(<" + VAR + "y>)";
+		out.write("DLSafeRule(Body(ClassAtom(:C" + random.nextInt(classes) + " " + x
+				+ ") ObjectPropertyAtom(:p" + random.nextInt(properties) + " " + x + " "
+				+ y + ")) Head(ClassAtom(:C" + random.nextInt(classes) + " " + y + ")))\n");
+	}
+}
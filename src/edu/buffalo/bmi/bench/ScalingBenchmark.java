@@ -0,0 +1,291 @@
+package edu.buffalo.bmi.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts synthetic ontologies of growing size end to end and records how
+ * the cost grows. Each conversion runs in a fresh JVM through
+ * {@link ConverterProbe}, which starts with the same JVM options as this
+ * one plus any given with --jvm-arg.
+ *
+ * For each size the benchmark records wall time, peak RSS, peak heap, GC
+ * time and output bytes in results.csv. It prints each metric with its
+ * growth exponent against the number of entities, where 1 is linear, and
+ * plots the metrics on log-log axes in scaling.svg.
+ */
+public class ScalingBenchmark {
+
+	static final String USAGE = "Usage: ScalingBenchmark [options] [generator options]\n"
+			+ "Options:\n"
+			+ "  --sizes <n,n,...>       class counts to run (default 1000,3000,10000,30000)\n"
+			+ "  --individuals-per-class <f>\n"
+			+ "                          individuals generated per class (default 1)\n"
+			+ "  --repeat <n>            runs per size; the median run is kept (default 1)\n"
+			+ "  --jvm-arg <arg>         extra option for the converter JVM (repeatable)\n"
+			+ "  --converter-arg <arg>   extra converter option (repeatable)\n"
+			+ "  --out <dir>             where ontologies and results go (default bench)\n"
+			+ "Generator options other than --classes and --individuals are passed on\n"
+			+ "to the ontology generator.";
+
+	private static final String[] METRICS = { "wall ms", "peak RSS", "peak heap",
+			"GC ms", "output bytes" };
+
+	/**
+	 * One conversion's measurements.
+	 */
+	static class Result {
+		int classes;
+		int individuals;
+		long inputBytes;
+		long[] metrics = new long[METRICS.length];
+
+		long entities() {
+			return classes + individuals;
+		}
+	}
+
+	/**
+	 * @param args
+	 *        the command line arguments
+	 */
+	public static void main(String[] args) {
+		List<Integer> sizes = new ArrayList<>();
+		double individualsPerClass = 1;
+		int repeat = 1;
+		List<String> jvmArgs = new ArrayList<>(
+				ManagementFactory.getRuntimeMXBean().getInputArguments());
+		List<String> converterArgs = new ArrayList<>();
+		File outDir = new File("bench");
+		List<String> generatorArgs = new ArrayList<>();
+		OntologyGenerator gen = new OntologyGenerator();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				switch (arg) {
+				case "--sizes":
+					for (String size : value(args, ++i, arg).split(",")) {
+						sizes.add(Integer.parseInt(size.trim()));
+					}
+					break;
+				case "--individuals-per-class":
+					individualsPerClass = Double.parseDouble(value(args, ++i, arg));
+					break;
+				case "--repeat":
+					repeat = Integer.parseInt(value(args, ++i, arg));
+					break;
+				case "--jvm-arg":
+					jvmArgs.add(value(args, ++i, arg));
+					break;
+				case "--converter-arg":
+					converterArgs.add(value(args, ++i, arg));
+					break;
+				case "--out":
+					outDir = new File(value(args, ++i, arg));
+					break;
+				default:
+					generatorArgs.add(arg);
+				}
+			}
+			if (!gen.parse(generatorArgs.toArray(new String[0])).isEmpty()) {
+				throw new IllegalArgumentException("Unexpected argument");
+			}
+		} catch (NumberFormatException e) {
+			System.out.println("Expected a number: " + e.getMessage());
+			System.out.println(USAGE);
+			System.exit(1);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(1);
+		}
+		if (sizes.isEmpty()) {
+			Collections.addAll(sizes, 1000, 3000, 10000, 30000);
+		}
+		Collections.sort(sizes);
+
+		try {
+			Files.createDirectories(outDir.toPath());
+			List<Result> results = new ArrayList<>();
+			for (int size : sizes) {
+				gen.classes = size;
+				gen.individuals = (int) Math.round(size * individualsPerClass);
+				File ontology = new File(outDir, "synthetic-" + size + ".ofn");
+				gen.write(ontology);
+
+				List<Result> runs = new ArrayList<>();
+				for (int r = 0; r < repeat; r++) {
+					Result result = convert(ontology, outDir, size, jvmArgs, converterArgs);
+					result.classes = gen.classes;
+					result.individuals = gen.individuals;
+					runs.add(result);
+				}
+				Collections.sort(runs, new Comparator<Result>() {
+					@Override
+					public int compare(Result a, Result b) {
+						return Long.compare(a.metrics[0], b.metrics[0]);
+					}
+				});
+				Result median = runs.get(runs.size() / 2);
+				results.add(median);
+				System.out.println(format(median, results.size() > 1
+						? results.get(results.size() - 2) : null));
+			}
+			writeCsv(new File(outDir, "results.csv"), results);
+			writeSvg(new File(outDir, "scaling.svg"), results);
+			System.out.println("Results in " + new File(outDir, "results.csv") + " and "
+					+ new File(outDir, "scaling.svg"));
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException(option + " requires a value");
+		}
+		return args[i];
+	}
+
+	private static Result convert(File ontology, File outDir, int size, List<String> jvmArgs,
+			List<String> converterArgs) throws IOException, InterruptedException {
+		File output = new File(outDir, "synthetic-" + size + ".sneps");
+		File log = new File(outDir, "synthetic-" + size + ".log");
+		List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		command.addAll(jvmArgs);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ConverterProbe.class.getName());
+		command.addAll(converterArgs);
+		command.add(ontology.getPath());
+		command.add(output.getPath());
+
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(log);
+		long start = System.nanoTime();
+		int exit = pb.start().waitFor();
+		long wallMillis = (System.nanoTime() - start) / 1000000;
+		if (exit != 0) {
+			throw new IOException("Conversion of " + ontology + " failed; see " + log);
+		}
+
+		Result result = new Result();
+		result.inputBytes = ontology.length();
+		result.metrics[0] = wallMillis;
+		result.metrics[4] = output.length();
+		for (String line : Files.readAllLines(log.toPath(), StandardCharsets.UTF_8)) {
+			if (line.startsWith(ConverterProbe.PREFIX)) {
+				String[] fields = line.substring(ConverterProbe.PREFIX.length()).split(" ");
+				result.metrics[3] = Long.parseLong(fields[0]);
+				result.metrics[1] = Long.parseLong(fields[1]);
+				result.metrics[2] = Long.parseLong(fields[2]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Formats a result, with the growth exponent of each metric since the
+	 * previous size when there is one.
+	 */
+	private static String format(Result r, Result previous) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "%8d classes %8d individuals:", r.classes,
+				r.individuals));
+		for (int m = 0; m < METRICS.length; m++) {
+			sb.append(String.format(Locale.ROOT, "  %s %d", METRICS[m], r.metrics[m]));
+			if (previous != null && previous.metrics[m] > 0 && r.metrics[m] > 0) {
+				double exponent = Math.log((double) r.metrics[m] / previous.metrics[m])
+						/ Math.log((double) r.entities() / previous.entities());
+				sb.append(String.format(Locale.ROOT, " (^%.2f)", exponent));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void writeCsv(File file, List<Result> results) throws IOException {
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("classes,individuals,input_bytes,wall_ms,peak_rss_bytes,"
+					+ "peak_heap_bytes,gc_ms,output_bytes");
+			for (Result r : results) {
+				out.print(r.classes + "," + r.individuals + "," + r.inputBytes);
+				for (long metric : r.metrics) {
+					out.print("," + metric);
+				}
+				out.println();
+			}
+		}
+	}
+
+	/**
+	 * Plots each metric against entity count on log-log axes, one panel per
+	 * metric, with a dashed line of slope one through the first point for
+	 * comparison with linear growth.
+	 */
+	private static void writeSvg(File file, List<Result> results) throws IOException {
+		int panel = 300;
+		int pad = 45;
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.printf(Locale.ROOT, "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" "
+					+ "height=\"%d\" font-family=\"sans-serif\" font-size=\"11\">%n",
+					panel * METRICS.length, panel);
+			double minX = Math.log(results.get(0).entities());
+			double maxX = Math.log(results.get(results.size() - 1).entities());
+			for (int m = 0; m < METRICS.length; m++) {
+				int x0 = m * panel + pad;
+				int y0 = panel - pad;
+				int w = panel - 2 * pad;
+				double minY = Double.MAX_VALUE;
+				double maxY = -Double.MAX_VALUE;
+				for (Result r : results) {
+					if (r.metrics[m] > 0) {
+						minY = Math.min(minY, Math.log(r.metrics[m]));
+						maxY = Math.max(maxY, Math.log(r.metrics[m]));
+					}
+				}
+				out.printf(Locale.ROOT, "<text x=\"%d\" y=\"20\">%s (log-log)</text>%n", x0,
+						METRICS[m]);
+				out.printf(Locale.ROOT, "<rect x=\"%d\" y=\"%d\" width=\"%d\" height=\"%d\" "
+						+ "fill=\"none\" stroke=\"#888\"/>%n", x0, pad, w, w);
+				out.printf(Locale.ROOT, "<text x=\"%d\" y=\"%d\">entities</text>%n", x0,
+						y0 + 20);
+				if (minY > maxY) {
+					continue;
+				}
+				double spanX = Math.max(maxX - minX, 1e-9);
+				double spanY = Math.max(maxY - minY, maxX - minX);
+				spanY = Math.max(spanY, 1e-9);
+				StringBuilder line = new StringBuilder();
+				for (Result r : results) {
+					if (r.metrics[m] <= 0) {
+						continue;
+					}
+					double x = x0 + w * (Math.log(r.entities()) - minX) / spanX;
+					double y = y0 - w * (Math.log(r.metrics[m]) - minY) / spanY;
+					line.append(String.format(Locale.ROOT, "%.1f,%.1f ", x, y));
+					out.printf(Locale.ROOT, "<circle cx=\"%.1f\" cy=\"%.1f\" r=\"3\"/>%n", x, y);
+				}
+				out.printf(Locale.ROOT, "<polyline points=\"%s\" fill=\"none\" "
+						+ "stroke=\"#c33\"/>%n", line.toString().trim());
+				// slope one, scaled the same way as the data
+				double endY = y0 - w * (maxX - minX) / spanY;
+				out.printf(Locale.ROOT, "<line x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%.1f\" "
+						+ "stroke=\"#888\" stroke-dasharray=\"4\"/>%n", x0, y0, x0 + w, endY);
+			}
+			out.println("</svg>");
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.buffalo.bmi.csneps.CSNePSSyntaxRenderer;
+import edu.buffalo.bmi.csneps.EntityIndexOutput;
+
+/**
+ * Writes rendered CSNePS terms to the output as assertions. Each line that
+ * starts with '(' is a term; anything else is copied through unchanged.
+ *
+ * With a batch size of one, every term gets its own {@code (assert '...)}
+ * form. With a larger batch size, up to that many terms share a single form
+ * that asserts them one at a time, so the CSNePS reader and evaluator see
+ * far fewer top-level forms while a term that fails to assert is still
+ * reported on its own.
+ *
+ * Block mark lines from the renderer are never written. Given an entity
+ * index, each starts a block at the byte offset of the next term; in a
+ * batch that is the term itself, so a block can take in the lines that
+ * close one batch and open the next.
+ */
+class AssertionWriter {
+
+	private static final int LINE_SEPARATOR_LENGTH = System.lineSeparator().length();
+
+	private final PrintWriter writer;
+	private final int batchSize;
+	private final List<String> batch;
+
+	private EntityIndexOutput index;
+	private Charset charset;
+	private long position;
+	/** Blocks that start at the next term, by entity IRI or null for none. */
+	private List<String> pendingBlocks = new ArrayList<>();
+	/** Blocks that start at each term of the batch, or null for none. */
+	private final List<List<String>> batchBlocks;
+
+	/**
+	 * @param writer
+	 *        the output
+	 * @param batchSize
+	 *        the most terms to put in one form
+	 */
+	AssertionWriter(PrintWriter writer, int batchSize) {
+		this.writer = writer;
+		this.batchSize = Math.max(1, batchSize);
+		this.batch = new ArrayList<>(this.batchSize);
+		this.batchBlocks = new ArrayList<>(this.batchSize);
+	}
+
+	/**
+	 * Indexes the entity blocks from here on.
+	 *
+	 * @param index
+	 *        the index to write
+	 * @param position
+	 *        the number of bytes in the output so far
+	 * @param charset
+	 *        the output's encoding
+	 */
+	void setIndex(EntityIndexOutput index, long position, Charset charset) {
+		this.index = index;
+		this.position = position;
+		this.charset = charset;
+	}
+
+	/**
+	 * @param line
+	 *        one line of renderer output
+	 * @throws IOException
+	 *         if the index cannot be written
+	 */
+	void writeLine(String line) throws IOException {
+		if (!line.isEmpty() && line.charAt(0) == CSNePSSyntaxRenderer.BLOCK_MARK) {
+			pendingBlocks.add(line.length() > 1 ? line.substring(1) : null);
+		} else if (!line.startsWith("(")) {
+			flush();
+			println(line);
+		} else if (batchSize == 1) {
+			startBlocks(pendingBlocks);
+			println("(assert '" + line + ")");
+		} else {
+			batch.add(line);
+			batchBlocks.add(pendingBlocks.isEmpty() ? null : pendingBlocks);
+			if (!pendingBlocks.isEmpty()) {
+				pendingBlocks = new ArrayList<>();
+			}
+			if (batch.size() == batchSize) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Writes out any terms still waiting for a full batch.
+	 *
+	 * @throws IOException
+	 *         if the index cannot be written
+	 */
+	void flush() throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		println("(doseq [term '[");
+		for (int i = 0; i < batch.size(); i++) {
+			startBlocks(batchBlocks.get(i));
+			println(batch.get(i));
+		}
+		println("]]");
+		println("  (try (assert term)");
+		println("    (catch Exception e");
+		println("      (println \"Failed to assert\" term \":\" (.getMessage e)))))");
+		batch.clear();
+		batchBlocks.clear();
+	}
+
+	/**
+	 * Writes out the last terms and ends the last entity block.
+	 *
+	 * @throws IOException
+	 *         if the index cannot be written
+	 */
+	void finish() throws IOException {
+		flush();
+		startBlocks(pendingBlocks);
+		if (index != null) {
+			index.startBlock(null, position);
+		}
+	}
+
+	private void startBlocks(List<String> blocks) throws IOException {
+		if (blocks == null || blocks.isEmpty()) {
+			return;
+		}
+		if (index != null) {
+			for (String iri : blocks) {
+				index.startBlock(iri, position);
+			}
+		}
+		blocks.clear();
+	}
+
+	private void println(String line) {
+		writer.println(line);
+		if (index != null) {
+			position += byteLength(line) + LINE_SEPARATOR_LENGTH;
+		}
+	}
+
+	/**
+	 * @return the encoded length of a line, which for ASCII, by far the
+	 *         usual case, is its length
+	 */
+	private long byteLength(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			if (line.charAt(i) >= 0x80) {
+				return line.getBytes(charset).length;
+			}
+		}
+		return line.length();
+	}
+}
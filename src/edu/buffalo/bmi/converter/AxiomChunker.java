@@ -0,0 +1,395 @@
+package edu.buffalo.bmi.converter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataPropertyExpression;
+import org.semanticweb.owlapi.model.OWLDisjointUnionAxiom;
+import org.semanticweb.owlapi.model.OWLIndividual;
+import org.semanticweb.owlapi.model.OWLNaryClassAxiom;
+import org.semanticweb.owlapi.model.OWLNaryIndividualAxiom;
+import org.semanticweb.owlapi.model.OWLNaryPropertyAxiom;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectOneOf;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLObjectUnionOf;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+/**
+ * Replaces axioms with more than a given number of operands by equivalent
+ * sets of smaller axioms, so that no single assert becomes a huge term.
+ *
+ * How an axiom is split depends on what it means:
+ * <ul>
+ * <li>DifferentIndividuals and the Disjoint axioms only say that every pair
+ * of operands is different or disjoint. The operands are cut into blocks of
+ * half the limit and the axiom is asserted once for each pair of blocks,
+ * which covers every pair of operands; this grows the output by about
+ * n / limit times, where asserting every pair separately would grow it by
+ * about n times.</li>
+ * <li>SameIndividual and the Equivalent axioms are transitive, so they are
+ * asserted over runs of operands in which each run shares its first operand
+ * with the last of the one before.</li>
+ * <li>DisjointUnion becomes EquivalentClasses of the class and the union,
+ * which is kept whole, and DisjointClasses split as above.</li>
+ * <li>A SubClassOf axiom whose subclass is a union or enumeration, or whose
+ * superclass is an intersection, holds exactly when it holds for each block
+ * of those operands.</li>
+ * </ul>
+ * Any other axiom with an oversized expression in it, such as an
+ * enumeration on the right of a SubClassOf axiom, has no equivalent split
+ * and is kept whole. Annotations are copied to every piece.
+ */
+class AxiomChunker {
+
+	/**
+	 * The ways an oversized axiom can be dealt with.
+	 */
+	enum Strategy {
+		BLOCKED_PAIRS("blocked pairs"), CHAINED("chained"), UNION_AND_BLOCKED_PAIRS(
+				"union and blocked pairs"), OPERAND_BLOCKS("operand blocks"), KEPT_WHOLE(
+				"kept whole");
+
+		private final String label;
+
+		private Strategy(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	private final OWLDataFactory df;
+	private final int maxOperands;
+
+	/** Per strategy, the number of axioms it was used for and of asserts made. */
+	private final Map<Strategy, long[]> counts = new EnumMap<>(Strategy.class);
+
+	/**
+	 * @param df
+	 *        the factory for the replacement axioms
+	 * @param maxOperands
+	 *        the most operands an axiom or expression may have; at least 2
+	 */
+	AxiomChunker(OWLDataFactory df, int maxOperands) {
+		this.df = df;
+		this.maxOperands = maxOperands;
+	}
+
+	/**
+	 * Splits the oversized axioms of an ontology.
+	 *
+	 * @return the number of axioms replaced
+	 */
+	int chunk(OWLOntology ontology) {
+		List<OWLOntologyChange> changes = new ArrayList<>();
+		int replaced = 0;
+		for (OWLAxiom ax : ontology.getLogicalAxioms()) {
+			List<OWLAxiom> pieces = split(ax);
+			if (pieces == null) {
+				if (isOversized(ax)) {
+					count(Strategy.KEPT_WHOLE, 1);
+				}
+				continue;
+			}
+			changes.add(new RemoveAxiom(ontology, ax));
+			for (OWLAxiom piece : pieces) {
+				changes.add(new AddAxiom(ontology, piece));
+			}
+			replaced++;
+		}
+		if (!changes.isEmpty()) {
+			ontology.getOWLOntologyManager().applyChanges(changes);
+		}
+		return replaced;
+	}
+
+	/**
+	 * @return the pieces to replace the axiom with, or null if it is to be
+	 *         kept
+	 */
+	@SuppressWarnings("unchecked")
+	private List<OWLAxiom> split(OWLAxiom ax) {
+		Set<OWLAnnotation> annotations = ax.getAnnotations();
+		List<OWLAxiom> pieces = new ArrayList<>();
+		switch (ax.getAxiomType().getName()) {
+		case "DifferentIndividuals":
+			if (!tooMany(((OWLNaryIndividualAxiom) ax).getIndividuals())) {
+				return null;
+			}
+			for (Set<? extends OWLObject> group : blockedPairs(((OWLNaryIndividualAxiom) ax)
+					.getIndividuals())) {
+				pieces.add(df.getOWLDifferentIndividualsAxiom((Set<OWLIndividual>) group,
+						annotations));
+			}
+			return count(Strategy.BLOCKED_PAIRS, pieces);
+		case "DisjointClasses":
+			if (!tooMany(((OWLNaryClassAxiom) ax).getClassExpressions())) {
+				return null;
+			}
+			disjointClasses(((OWLNaryClassAxiom) ax).getClassExpressions(), annotations,
+					pieces);
+			return count(Strategy.BLOCKED_PAIRS, pieces);
+		case "DisjointObjectProperties":
+			if (!tooMany(((OWLNaryPropertyAxiom<?>) ax).getProperties())) {
+				return null;
+			}
+			for (Set<? extends OWLObject> group : blockedPairs(((OWLNaryPropertyAxiom<?>) ax)
+					.getProperties())) {
+				pieces.add(df.getOWLDisjointObjectPropertiesAxiom(
+						(Set<OWLObjectPropertyExpression>) group, annotations));
+			}
+			return count(Strategy.BLOCKED_PAIRS, pieces);
+		case "DisjointDataProperties":
+			if (!tooMany(((OWLNaryPropertyAxiom<?>) ax).getProperties())) {
+				return null;
+			}
+			for (Set<? extends OWLObject> group : blockedPairs(((OWLNaryPropertyAxiom<?>) ax)
+					.getProperties())) {
+				pieces.add(df.getOWLDisjointDataPropertiesAxiom(
+						(Set<OWLDataPropertyExpression>) group, annotations));
+			}
+			return count(Strategy.BLOCKED_PAIRS, pieces);
+		case "SameIndividual":
+			if (!tooMany(((OWLNaryIndividualAxiom) ax).getIndividuals())) {
+				return null;
+			}
+			for (Set<? extends OWLObject> group : chained(((OWLNaryIndividualAxiom) ax)
+					.getIndividuals())) {
+				pieces.add(df.getOWLSameIndividualAxiom((Set<OWLIndividual>) group,
+						annotations));
+			}
+			return count(Strategy.CHAINED, pieces);
+		case "EquivalentClasses":
+			if (!tooMany(((OWLNaryClassAxiom) ax).getClassExpressions())) {
+				return null;
+			}
+			for (Set<? extends OWLObject> group : chained(((OWLNaryClassAxiom) ax)
+					.getClassExpressions())) {
+				pieces.add(df.getOWLEquivalentClassesAxiom((Set<OWLClassExpression>) group,
+						annotations));
+			}
+			return count(Strategy.CHAINED, pieces);
+		case "EquivalentObjectProperties":
+			if (!tooMany(((OWLNaryPropertyAxiom<?>) ax).getProperties())) {
+				return null;
+			}
+			for (Set<? extends OWLObject> group : chained(((OWLNaryPropertyAxiom<?>) ax)
+					.getProperties())) {
+				pieces.add(df.getOWLEquivalentObjectPropertiesAxiom(
+						(Set<OWLObjectPropertyExpression>) group, annotations));
+			}
+			return count(Strategy.CHAINED, pieces);
+		case "EquivalentDataProperties":
+			if (!tooMany(((OWLNaryPropertyAxiom<?>) ax).getProperties())) {
+				return null;
+			}
+			for (Set<? extends OWLObject> group : chained(((OWLNaryPropertyAxiom<?>) ax)
+					.getProperties())) {
+				pieces.add(df.getOWLEquivalentDataPropertiesAxiom(
+						(Set<OWLDataPropertyExpression>) group, annotations));
+			}
+			return count(Strategy.CHAINED, pieces);
+		case "DisjointUnion":
+			OWLDisjointUnionAxiom du = (OWLDisjointUnionAxiom) ax;
+			if (!tooMany(du.getClassExpressions())) {
+				return null;
+			}
+			pieces.add(df.getOWLEquivalentClassesAxiom(du.getOWLClass(),
+					df.getOWLObjectUnionOf(du.getClassExpressions()), annotations));
+			disjointClasses(du.getClassExpressions(), annotations, pieces);
+			return count(Strategy.UNION_AND_BLOCKED_PAIRS, pieces);
+		case "SubClassOf":
+			return splitSubClassOf((OWLSubClassOfAxiom) ax, annotations);
+		default:
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void disjointClasses(Set<OWLClassExpression> operands,
+			Set<OWLAnnotation> annotations, List<OWLAxiom> pieces) {
+		for (Set<? extends OWLObject> group : blockedPairs(operands)) {
+			pieces.add(df.getOWLDisjointClassesAxiom((Set<OWLClassExpression>) group,
+					annotations));
+		}
+	}
+
+	/**
+	 * (A1 or ... or An) SubClassOf C, and likewise for {a1 ... an}, holds
+	 * exactly when each block of the Ai does; C SubClassOf (B1 and ... and
+	 * Bn) exactly when C is a subclass of each block of the Bi.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<OWLAxiom> splitSubClassOf(OWLSubClassOfAxiom ax,
+			Set<OWLAnnotation> annotations) {
+		List<OWLClassExpression> subs = new ArrayList<>();
+		OWLClassExpression sub = ax.getSubClass();
+		if (sub instanceof OWLObjectUnionOf && tooMany(((OWLObjectUnionOf) sub).getOperands())) {
+			for (Set<? extends OWLObject> block : blocks(((OWLObjectUnionOf) sub).getOperands(),
+					maxOperands)) {
+				subs.add(block.size() == 1 ? (OWLClassExpression) block.iterator().next()
+						: df.getOWLObjectUnionOf((Set<OWLClassExpression>) block));
+			}
+		} else if (sub instanceof OWLObjectOneOf
+				&& tooMany(((OWLObjectOneOf) sub).getIndividuals())) {
+			for (Set<? extends OWLObject> block : blocks(((OWLObjectOneOf) sub).getIndividuals(),
+					maxOperands)) {
+				subs.add(df.getOWLObjectOneOf((Set<OWLIndividual>) block));
+			}
+		} else {
+			subs.add(sub);
+		}
+
+		List<OWLClassExpression> sups = new ArrayList<>();
+		OWLClassExpression sup = ax.getSuperClass();
+		if (sup instanceof OWLObjectIntersectionOf
+				&& tooMany(((OWLObjectIntersectionOf) sup).getOperands())) {
+			for (Set<? extends OWLObject> block : blocks(
+					((OWLObjectIntersectionOf) sup).getOperands(), maxOperands)) {
+				sups.add(block.size() == 1 ? (OWLClassExpression) block.iterator().next()
+						: df.getOWLObjectIntersectionOf((Set<OWLClassExpression>) block));
+			}
+		} else {
+			sups.add(sup);
+		}
+
+		if (subs.size() == 1 && sups.size() == 1) {
+			return null;
+		}
+		List<OWLAxiom> pieces = new ArrayList<>();
+		for (OWLClassExpression s : subs) {
+			for (OWLClassExpression t : sups) {
+				pieces.add(df.getOWLSubClassOfAxiom(s, t, annotations));
+			}
+		}
+		return count(Strategy.OPERAND_BLOCKS, pieces);
+	}
+
+	private boolean tooMany(Collection<?> operands) {
+		return operands.size() > maxOperands;
+	}
+
+	/**
+	 * @return whether the axiom or any expression in it has too many
+	 *         operands
+	 */
+	private boolean isOversized(OWLAxiom ax) {
+		if (ax instanceof OWLNaryIndividualAxiom) {
+			return tooMany(((OWLNaryIndividualAxiom) ax).getIndividuals());
+		}
+		if (ax instanceof OWLNaryClassAxiom) {
+			return tooMany(((OWLNaryClassAxiom) ax).getClassExpressions());
+		}
+		if (ax instanceof OWLNaryPropertyAxiom) {
+			return tooMany(((OWLNaryPropertyAxiom<?>) ax).getProperties());
+		}
+		for (OWLClassExpression ce : ax.getNestedClassExpressions()) {
+			if (ce instanceof OWLObjectUnionOf && tooMany(((OWLObjectUnionOf) ce).getOperands())
+					|| ce instanceof OWLObjectIntersectionOf
+					&& tooMany(((OWLObjectIntersectionOf) ce).getOperands())
+					|| ce instanceof OWLObjectOneOf
+					&& tooMany(((OWLObjectOneOf) ce).getIndividuals())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the operands, in order, cut into consecutive blocks of at most
+	 *         the given size
+	 */
+	private static List<Set<? extends OWLObject>> blocks(Set<? extends OWLObject> operands,
+			int size) {
+		List<OWLObject> sorted = new ArrayList<>(operands);
+		Collections.sort(sorted);
+		List<Set<? extends OWLObject>> blocks = new ArrayList<>();
+		for (int i = 0; i < sorted.size(); i += size) {
+			blocks.add(new LinkedHashSet<>(sorted.subList(i, Math.min(i + size,
+					sorted.size()))));
+		}
+		return blocks;
+	}
+
+	/**
+	 * @return the union of every two blocks of half the limit, which
+	 *         between them contain every pair of operands
+	 */
+	private List<Set<? extends OWLObject>> blockedPairs(Set<? extends OWLObject> operands) {
+		List<Set<? extends OWLObject>> blocks = blocks(operands, maxOperands / 2);
+		List<Set<? extends OWLObject>> groups = new ArrayList<>();
+		for (int i = 0; i < blocks.size(); i++) {
+			for (int j = i + 1; j < blocks.size(); j++) {
+				Set<OWLObject> group = new LinkedHashSet<>(blocks.get(i));
+				group.addAll(blocks.get(j));
+				groups.add(group);
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * @return runs of at most the limit of the operands, each starting with
+	 *         the last operand of the one before
+	 */
+	private List<Set<? extends OWLObject>> chained(Set<? extends OWLObject> operands) {
+		List<OWLObject> sorted = new ArrayList<>(operands);
+		Collections.sort(sorted);
+		List<Set<? extends OWLObject>> runs = new ArrayList<>();
+		for (int i = 0; i < sorted.size() - 1; i += maxOperands - 1) {
+			runs.add(new LinkedHashSet<>(sorted.subList(i, Math.min(i + maxOperands,
+					sorted.size()))));
+		}
+		return runs;
+	}
+
+	private List<OWLAxiom> count(Strategy strategy, List<OWLAxiom> pieces) {
+		count(strategy, pieces.size());
+		return pieces;
+	}
+
+	private void count(Strategy strategy, int asserts) {
+		long[] c = counts.get(strategy);
+		if (c == null) {
+			c = new long[2];
+			counts.put(strategy, c);
+		}
+		c[0]++;
+		c[1] += asserts;
+	}
+
+	/**
+	 * @return for each strategy used, how many axioms it was used for and
+	 *         how many asserts they became
+	 */
+	String report() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<Strategy, long[]> e : counts.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(e.getKey()).append(' ').append(e.getValue()[0]).append(" -> ")
+					.append(e.getValue()[1]);
+		}
+		return sb.length() > 0 ? sb.toString() : "none";
+	}
+}
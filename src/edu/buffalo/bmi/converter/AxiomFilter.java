@@ -0,0 +1,196 @@
+package edu.buffalo.bmi.converter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyBuilder;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.parameters.ChangeApplied;
+
+import uk.ac.manchester.cs.owl.owlapi.EmptyInMemOWLOntologyFactory;
+import uk.ac.manchester.cs.owl.owlapi.OWLOntologyImpl;
+import uk.ac.manchester.cs.owl.owlapi.ParsableOWLOntologyFactory;
+
+/**
+ * Keeps unwanted axioms out of an ontology as it is parsed, so they never
+ * reach its indexes.
+ *
+ * Annotation axioms can be turned off in the loader configuration, which
+ * the parsers honour by not building them at all. Everything else is
+ * decided axiom by axiom: the manager is given ontologies that check each
+ * axiom a parser adds and drop it, or strip its unwanted annotations, before
+ * it is stored. The check applies only until {@link #finish()}, so that the
+ * converter's own rewrites after loading are kept whole.
+ */
+class AxiomFilter {
+
+	private final Set<AxiomType<?>> axiomTypes;
+	private final boolean annotations;
+	private final Set<IRI> annotationProperties;
+	private final List<String> excludedNamespaces;
+
+	private boolean loading = true;
+	private long dropped;
+	private long stripped;
+
+	/**
+	 * @param axiomTypes
+	 *        the axiom types to keep, or null for all
+	 * @param annotations
+	 *        false to drop annotation axioms and axiom annotations
+	 * @param annotationProperties
+	 *        the annotation properties to keep, or null for all
+	 * @param excludedNamespaces
+	 *        namespaces whose entities' axioms are dropped
+	 */
+	AxiomFilter(Set<AxiomType<?>> axiomTypes, boolean annotations,
+			Set<IRI> annotationProperties, List<String> excludedNamespaces) {
+		this.axiomTypes = axiomTypes;
+		this.annotations = annotations;
+		this.annotationProperties = annotationProperties;
+		this.excludedNamespaces = excludedNamespaces;
+	}
+
+	/**
+	 * Makes the manager create filtering ontologies.
+	 *
+	 * @param manager
+	 *        the manager that will load the ontology
+	 */
+	void install(OWLOntologyManager manager) {
+		OWLOntologyBuilder builder = new OWLOntologyBuilder() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public OWLOntology createOWLOntology(OWLOntologyManager m, OWLOntologyID id) {
+				return new FilteringOntology(m, id);
+			}
+		};
+		manager.getOntologyFactories().set(new EmptyInMemOWLOntologyFactory(builder),
+				new ParsableOWLOntologyFactory(builder));
+	}
+
+	/**
+	 * @return the loader configuration to load with
+	 */
+	OWLOntologyLoaderConfiguration configure(OWLOntologyLoaderConfiguration config) {
+		return config.setLoadAnnotationAxioms(annotations);
+	}
+
+	/**
+	 * Stops filtering; called once the ontology is loaded.
+	 */
+	void finish() {
+		loading = false;
+	}
+
+	/**
+	 * @return the number of axioms dropped
+	 */
+	long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return the number of axioms kept without some of their annotations
+	 */
+	long getStripped() {
+		return stripped;
+	}
+
+	/**
+	 * @return the axiom as it is to be kept, or null if it is dropped
+	 */
+	OWLAxiom filter(OWLAxiom ax) {
+		if (ax.isAnnotationAxiom()) {
+			if (!annotations || ax instanceof OWLAnnotationAssertionAxiom
+					&& !isKept(((OWLAnnotationAssertionAxiom) ax).getProperty().getIRI())) {
+				return null;
+			}
+		}
+		if (axiomTypes != null && !axiomTypes.contains(ax.getAxiomType())) {
+			return null;
+		}
+		if (!excludedNamespaces.isEmpty()) {
+			for (OWLEntity entity : ax.getSignature()) {
+				if (isExcluded(entity.getIRI())) {
+					return null;
+				}
+			}
+			if (ax instanceof OWLAnnotationAssertionAxiom
+					&& ((OWLAnnotationAssertionAxiom) ax).getSubject() instanceof IRI
+					&& isExcluded((IRI) ((OWLAnnotationAssertionAxiom) ax).getSubject())) {
+				return null;
+			}
+		}
+		if (!ax.isAnnotated()) {
+			return ax;
+		}
+		Set<OWLAnnotation> kept = new HashSet<>();
+		if (annotations) {
+			for (OWLAnnotation a : ax.getAnnotations()) {
+				if (isKept(a.getProperty().getIRI())) {
+					kept.add(a);
+				}
+			}
+		}
+		if (kept.size() == ax.getAnnotations().size()) {
+			return ax;
+		}
+		stripped++;
+		return ax.getAxiomWithoutAnnotations().getAnnotatedAxiom(kept);
+	}
+
+	private boolean isKept(IRI property) {
+		return annotationProperties == null || annotationProperties.contains(property);
+	}
+
+	private boolean isExcluded(IRI iri) {
+		String s = iri.toString();
+		for (String ns : excludedNamespaces) {
+			if (s.startsWith(ns)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * An ontology that passes the axioms it is given through the filter
+	 * while loading.
+	 */
+	private class FilteringOntology extends OWLOntologyImpl {
+
+		private static final long serialVersionUID = 1L;
+
+		FilteringOntology(OWLOntologyManager manager, OWLOntologyID id) {
+			super(manager, id);
+		}
+
+		@Override
+		public ChangeApplied applyChange(OWLOntologyChange change) {
+			if (!loading || !change.isAddAxiom()) {
+				return super.applyChange(change);
+			}
+			OWLAxiom ax = change.getAxiom();
+			OWLAxiom kept = filter(ax);
+			if (kept == null) {
+				dropped++;
+				return ChangeApplied.UNSUCCESSFULLY;
+			}
+			return super.applyChange(kept == ax ? change : new AddAxiom(this, kept));
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import edu.buffalo.bmi.csneps.ConversionProgress.Phase;
+import edu.buffalo.bmi.csneps.RenderCheckpoint;
+
+/**
+ * The last checkpoint of a conversion, as kept on disk next to the output:
+ * where the renderer had got to, how much of each output file belongs to
+ * that point, and what input and settings it was made from.
+ */
+class CheckpointFile {
+
+	long inputLength;
+	long inputModified;
+	String settings;
+	RenderCheckpoint point;
+	long outputOffset;
+	/** Lines in the output up to outputOffset, or -1 if not known. */
+	long outputLines;
+	long annotationsOffset;
+	long annotationsIndexOffset;
+	long literalsOffset;
+
+	/**
+	 * @param input
+	 *        the ontology file being converted
+	 * @param settings
+	 *        the options that affect what is rendered
+	 */
+	CheckpointFile(File input, String settings) {
+		inputLength = input.length();
+		inputModified = input.lastModified();
+		this.settings = settings;
+	}
+
+	private CheckpointFile() {
+	}
+
+	/**
+	 * @param input
+	 *        the ontology file being converted
+	 * @param settings
+	 *        the options that affect what is rendered
+	 * @return why this checkpoint cannot be resumed from, or null if it can
+	 */
+	String mismatch(File input, String settings) {
+		if (input.length() != inputLength || input.lastModified() != inputModified) {
+			return "the input file has changed since the checkpoint";
+		}
+		if (!this.settings.equals(settings)) {
+			return "the checkpoint was made with different options (" + this.settings + ")";
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if rendering had finished at this checkpoint
+	 */
+	boolean isRenderComplete() {
+		return point.getPhase() == Phase.DONE;
+	}
+
+	/**
+	 * Writes the checkpoint, replacing any earlier one in a single step so
+	 * that a crash leaves either the old or the new checkpoint.
+	 *
+	 * @param file
+	 *        the checkpoint file
+	 * @throws IOException
+	 *         if the file cannot be written
+	 */
+	void write(File file) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("input.length", Long.toString(inputLength));
+		props.setProperty("input.modified", Long.toString(inputModified));
+		props.setProperty("settings", settings);
+		props.setProperty("phase", point.getPhase().name());
+		props.setProperty("position", Integer.toString(point.getPosition()));
+		props.setProperty("uniqueId", Integer.toString(point.getUniqueId()));
+		props.setProperty("signatureSize", Integer.toString(point.getSignatureSize()));
+		props.setProperty("output.offset", Long.toString(outputOffset));
+		props.setProperty("output.lines", Long.toString(outputLines));
+		props.setProperty("annotations.offset", Long.toString(annotationsOffset));
+		props.setProperty("annotations.index.offset", Long.toString(annotationsIndexOffset));
+		props.setProperty("literals.offset", Long.toString(literalsOffset));
+
+		Path target = file.toPath();
+		Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmp)) {
+			props.store(out, "CSNePS conversion checkpoint");
+		}
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @param file
+	 *        the checkpoint file
+	 * @return the checkpoint it holds
+	 * @throws IOException
+	 *         if the file cannot be read or is not a checkpoint
+	 */
+	static CheckpointFile read(File file) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			props.load(in);
+		}
+		CheckpointFile ckpt = new CheckpointFile();
+		try {
+			ckpt.inputLength = Long.parseLong(props.getProperty("input.length"));
+			ckpt.inputModified = Long.parseLong(props.getProperty("input.modified"));
+			ckpt.settings = props.getProperty("settings", "");
+			ckpt.point = new RenderCheckpoint(Phase.valueOf(props.getProperty("phase")),
+					Integer.parseInt(props.getProperty("position")),
+					Integer.parseInt(props.getProperty("uniqueId")),
+					Integer.parseInt(props.getProperty("signatureSize")));
+			ckpt.outputOffset = Long.parseLong(props.getProperty("output.offset"));
+			// not recorded by earlier versions
+			ckpt.outputLines = Long.parseLong(props.getProperty("output.lines", "-1"));
+			ckpt.annotationsOffset = Long.parseLong(props.getProperty("annotations.offset"));
+			ckpt.annotationsIndexOffset = Long.parseLong(
+					props.getProperty("annotations.index.offset"));
+			ckpt.literalsOffset = Long.parseLong(props.getProperty("literals.offset"));
+		} catch (IllegalArgumentException | NullPointerException e) {
+			throw new IOException("Not a valid checkpoint file: " + file, e);
+		}
+		return ckpt;
+	}
+}
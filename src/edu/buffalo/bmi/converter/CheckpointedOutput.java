@@ -0,0 +1,145 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.io.CountingOutputStream;
+
+import edu.buffalo.bmi.csneps.AnnotationOutput;
+import edu.buffalo.bmi.csneps.CheckpointListener;
+import edu.buffalo.bmi.csneps.LiteralOutput;
+import edu.buffalo.bmi.csneps.RenderCheckpoint;
+
+/**
+ * Holds the rendered CSNePS terms in a file next to the output, and records
+ * a checkpoint file whenever the renderer reaches a checkpoint. Takes the
+ * place of a {@link RenderBuffer} when a conversion can be resumed.
+ *
+ * At each checkpoint the terms file and any annotation and literal output
+ * are forced
+ * to disk before the checkpoint file is replaced, so the checkpoint never
+ * covers output that could be lost.
+ */
+class CheckpointedOutput extends Writer implements CheckpointListener {
+
+	private final File termsFile;
+	private final File checkpointFile;
+	private final CheckpointFile state;
+	private final AnnotationOutput annotations;
+	private final LiteralOutput literals;
+	private final FileChannel channel;
+	private final CountingOutputStream counter;
+	private final LineCountingWriter out;
+	private final long base;
+	private final long baseLines;
+
+	/**
+	 * @param termsFile
+	 *        the file for the rendered terms
+	 * @param checkpointFile
+	 *        the file for the checkpoint
+	 * @param state
+	 *        the checkpoint to resume from, or a fresh one without a point to
+	 *        start over; updated at each checkpoint
+	 * @param annotations
+	 *        the annotation output to sync at each checkpoint, or null
+	 * @param literals
+	 *        the literal side file to sync at each checkpoint, or null
+	 * @throws IOException
+	 *         if the terms file cannot be opened
+	 */
+	CheckpointedOutput(File termsFile, File checkpointFile, CheckpointFile state,
+			AnnotationOutput annotations, LiteralOutput literals) throws IOException {
+		this.termsFile = termsFile;
+		this.checkpointFile = checkpointFile;
+		this.state = state;
+		this.annotations = annotations;
+		this.literals = literals;
+		base = state.point != null ? state.outputOffset : 0;
+		baseLines = state.point != null ? state.outputLines : 0;
+		channel = FileChannel.open(termsFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		// anything past the checkpoint was written after it and is dropped
+		channel.truncate(base);
+		channel.position(base);
+		counter = new CountingOutputStream(Channels.newOutputStream(channel));
+		out = new LineCountingWriter(new BufferedWriter(new OutputStreamWriter(counter,
+				StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @return the number of lines in the terms file, or -1 if not known
+	 *         because it was resumed from a checkpoint that did not record it
+	 */
+	long getLineCount() {
+		return baseLines < 0 ? -1 : baseLines + out.getLines();
+	}
+
+	@Override
+	public void checkpoint(RenderCheckpoint point) throws IOException {
+		out.flush();
+		channel.force(false);
+		state.outputOffset = base + counter.getCount();
+		state.outputLines = getLineCount();
+		if (annotations != null) {
+			annotations.sync();
+			state.annotationsOffset = annotations.getOffset();
+			state.annotationsIndexOffset = annotations.getIndexOffset();
+		}
+		if (literals != null) {
+			literals.sync();
+			state.literalsOffset = literals.getOffset();
+		}
+		state.point = point;
+		state.write(checkpointFile);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		out.write(cbuf, off, len);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		out.write(str, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Opens the rendered terms for reading. No more writes may follow.
+	 *
+	 * @return a reader over the terms file
+	 * @throws IOException
+	 *         if the file cannot be read
+	 */
+	Reader openReader() throws IOException {
+		out.close();
+		return Files.newBufferedReader(termsFile.toPath(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Removes the terms and checkpoint files once the output is complete.
+	 */
+	void dispose() {
+		termsFile.delete();
+		checkpointFile.delete();
+	}
+}
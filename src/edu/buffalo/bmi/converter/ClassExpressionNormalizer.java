@@ -0,0 +1,169 @@
+package edu.buffalo.bmi.converter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.ClassExpressionType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNaryBooleanClassExpression;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectComplementOf;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectUnionOf;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.semanticweb.owlapi.util.OWLObjectDuplicator;
+import org.semanticweb.owlapi.util.OWLObjectVisitorExAdapter;
+import org.semanticweb.owlapi.util.OWLObjectWalker;
+
+/**
+ * Rewrites class expressions into a smaller equivalent form before
+ * rendering: nested intersections and unions are flattened into their
+ * parent, duplicate operands are dropped, single-operand intersections and
+ * unions are replaced by their operand, and double complements cancel out.
+ */
+class ClassExpressionNormalizer extends OWLObjectDuplicator {
+
+	/**
+	 * Size measures of the class expressions in an ontology.
+	 */
+	static class Stats {
+		long axioms;
+		long terms;
+		int maxDepth;
+
+		@Override
+		public String toString() {
+			return axioms + " axioms, " + terms + " class expression terms, max nesting depth "
+					+ maxDepth;
+		}
+	}
+
+	private final OWLDataFactory df;
+
+	/**
+	 * @param df
+	 *        the data factory to build normalised expressions with
+	 */
+	ClassExpressionNormalizer(OWLDataFactory df) {
+		super(df);
+		this.df = df;
+	}
+
+	/**
+	 * Normalises every axiom of an ontology in place.
+	 *
+	 * @param ontology
+	 *        the ontology
+	 * @return the number of axioms that changed
+	 */
+	int normalize(OWLOntology ontology) {
+		List<OWLOntologyChange> changes = new ArrayList<>();
+		for (OWLAxiom ax : ontology.getAxioms()) {
+			if (!hasBooleanExpression(ax)) {
+				continue;
+			}
+			OWLAxiom normalized = duplicateObject(ax);
+			if (!normalized.equals(ax)) {
+				changes.add(new RemoveAxiom(ontology, ax));
+				changes.add(new AddAxiom(ontology, normalized));
+			}
+		}
+		if (!changes.isEmpty()) {
+			ontology.getOWLOntologyManager().applyChanges(changes);
+		}
+		return changes.size() / 2;
+	}
+
+	/**
+	 * Only axioms with an intersection, union or complement somewhere in them
+	 * can change, so the rest are not copied.
+	 */
+	private static boolean hasBooleanExpression(OWLAxiom ax) {
+		for (OWLClassExpression ce : ax.getNestedClassExpressions()) {
+			switch (ce.getClassExpressionType()) {
+			case OBJECT_INTERSECTION_OF:
+			case OBJECT_UNION_OF:
+			case OBJECT_COMPLEMENT_OF:
+				return true;
+			default:
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void visit(OWLObjectIntersectionOf ce) {
+		Set<OWLClassExpression> operands = flatten(ce.getOperands(),
+				ClassExpressionType.OBJECT_INTERSECTION_OF);
+		setLastObject(operands.size() == 1 ? operands.iterator().next()
+				: df.getOWLObjectIntersectionOf(operands));
+	}
+
+	@Override
+	public void visit(OWLObjectUnionOf ce) {
+		Set<OWLClassExpression> operands = flatten(ce.getOperands(),
+				ClassExpressionType.OBJECT_UNION_OF);
+		setLastObject(operands.size() == 1 ? operands.iterator().next()
+				: df.getOWLObjectUnionOf(operands));
+	}
+
+	@Override
+	public void visit(OWLObjectComplementOf ce) {
+		OWLClassExpression operand = duplicateObject(ce.getOperand());
+		if (operand instanceof OWLObjectComplementOf) {
+			setLastObject(((OWLObjectComplementOf) operand).getOperand());
+		} else {
+			setLastObject(df.getOWLObjectComplementOf(operand));
+		}
+	}
+
+	private Set<OWLClassExpression> flatten(Set<OWLClassExpression> operands,
+			ClassExpressionType type) {
+		Set<OWLClassExpression> flat = new HashSet<>();
+		for (OWLClassExpression op : operands) {
+			OWLClassExpression normalized = duplicateObject(op);
+			if (normalized.getClassExpressionType() == type) {
+				flat.addAll(((OWLNaryBooleanClassExpression) normalized).getOperands());
+			} else {
+				flat.add(normalized);
+			}
+		}
+		return flat;
+	}
+
+	/**
+	 * Measures the logical axioms of an ontology: how many there are, how
+	 * many class expression terms they contain in all, and how deeply those
+	 * terms nest.
+	 *
+	 * @param ontology
+	 *        the ontology
+	 * @return the measures
+	 */
+	static Stats measure(OWLOntology ontology) {
+		final Stats stats = new Stats();
+		stats.axioms = ontology.getLogicalAxiomCount();
+		final OWLObjectWalker<OWLAxiom> walker = new OWLObjectWalker<>(
+				Collections.<OWLAxiom> unmodifiableSet(ontology.getLogicalAxioms()), true);
+		walker.walkStructure(new OWLObjectVisitorExAdapter<Object>(null) {
+			@Override
+			protected Object doDefault(OWLObject object) {
+				if (object instanceof OWLClassExpression) {
+					stats.terms++;
+					stats.maxDepth = Math.max(stats.maxDepth,
+							walker.getClassExpressionPath().size());
+				}
+				return null;
+			}
+		});
+		return stats;
+	}
+}
@@ -0,0 +1,372 @@
+package edu.buffalo.bmi.converter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.formats.PrefixDocumentFormat;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataAllValuesFrom;
+import org.semanticweb.owlapi.model.OWLDataExactCardinality;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataHasValue;
+import org.semanticweb.owlapi.model.OWLDataMaxCardinality;
+import org.semanticweb.owlapi.model.OWLDataMinCardinality;
+import org.semanticweb.owlapi.model.OWLDataSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectAllValuesFrom;
+import org.semanticweb.owlapi.model.OWLObjectComplementOf;
+import org.semanticweb.owlapi.model.OWLObjectExactCardinality;
+import org.semanticweb.owlapi.model.OWLObjectHasSelf;
+import org.semanticweb.owlapi.model.OWLObjectHasValue;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectMaxCardinality;
+import org.semanticweb.owlapi.model.OWLObjectMinCardinality;
+import org.semanticweb.owlapi.model.OWLObjectOneOf;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLObjectUnionOf;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.semanticweb.owlapi.util.OWLObjectDuplicator;
+import org.semanticweb.owlapi.util.OWLObjectVisitorExAdapter;
+import org.semanticweb.owlapi.util.OWLObjectWalker;
+
+/**
+ * Gives repeated anonymous class expressions a name, so that each is written
+ * out once rather than wherever it occurs.
+ *
+ * An expression is named when it occurs at least a given number of times in
+ * the logical axioms, has at least a given number of class expression terms,
+ * named classes among them, and naming it takes fewer terms than writing it
+ * out each time. It becomes a new class, {@code shared:E1} and so on,
+ * defined by a pair of SubClassOf axioms, one each way between the class and
+ * the expression, and every occurrence is replaced by the class. The pair is
+ * written as two rules CSNePS can reason with, where an EquivalentClasses
+ * axiom would not be, and it keeps every entailment over the original
+ * vocabulary. The new classes sort before other IRIs, so their definitions
+ * are written first.
+ *
+ * Larger expressions are named first. An expression inside a named one is
+ * then counted once for that named one instead of once per occurrence of it,
+ * and is only named itself if it still occurs often enough; if it is named,
+ * the larger one's definition refers to it by name as well.
+ */
+class ClassExpressionSharer extends OWLObjectDuplicator {
+
+	static final String NAMESPACE = "csneps:shared#";
+	static final String PREFIX = "shared:";
+
+	private final OWLDataFactory df;
+	private final int minOccurrences;
+	private final int minSize;
+
+	/** Named expressions, in the order they were named. */
+	private final Map<OWLClassExpression, OWLClass> names = new LinkedHashMap<>();
+	/** The expression being defined, which is not replaced by its own name. */
+	private OWLClassExpression defining;
+	private int occurrencesReplaced;
+
+	/**
+	 * @param df
+	 *        the factory for the new classes and axioms
+	 * @param minOccurrences
+	 *        the fewest occurrences an expression needs to be named; at least 2
+	 * @param minSize
+	 *        the fewest class expression terms it needs
+	 */
+	ClassExpressionSharer(OWLDataFactory df, int minOccurrences, int minSize) {
+		super(df);
+		this.df = df;
+		this.minOccurrences = minOccurrences;
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Names the repeated expressions of an ontology and rewrites its axioms
+	 * to use the names.
+	 *
+	 * @param ontology
+	 *        the ontology
+	 * @return the number of expressions named
+	 */
+	int share(OWLOntology ontology) {
+		final Map<OWLClassExpression, int[]> counts = new HashMap<>();
+		walk(ontology.getLogicalAxioms(), true, new TermHandler() {
+			@Override
+			void found(OWLClassExpression ce) {
+				int[] count = counts.get(ce);
+				if (count == null) {
+					counts.put(ce, new int[] { 1 });
+				} else {
+					count[0]++;
+				}
+			}
+		});
+
+		final Map<OWLClassExpression, List<OWLClassExpression>> parts = new HashMap<>();
+		List<OWLClassExpression> candidates = new ArrayList<>();
+		for (Map.Entry<OWLClassExpression, int[]> e : counts.entrySet()) {
+			if (e.getValue()[0] >= minOccurrences) {
+				List<OWLClassExpression> terms = terms(e.getKey());
+				if (terms.size() >= minSize) {
+					parts.put(e.getKey(), terms);
+					candidates.add(e.getKey());
+				}
+			}
+		}
+		// largest first, so that an expression's count is final when it is
+		// reached; ties in a fixed order, so a resumed run names the same way
+		Collections.sort(candidates, new Comparator<OWLClassExpression>() {
+			@Override
+			public int compare(OWLClassExpression a, OWLClassExpression b) {
+				int bySize = Integer.compare(parts.get(b).size(), parts.get(a).size());
+				return bySize != 0 ? bySize : a.compareTo(b);
+			}
+		});
+
+		int next = 1;
+		for (OWLClassExpression ce : candidates) {
+			int occurrences = counts.get(ce)[0];
+			List<OWLClassExpression> terms = parts.get(ce);
+			// k occurrences of the body become k names and a definition of
+			// two axioms, each with the body and the name in it
+			if (occurrences < minOccurrences
+					|| (occurrences - 2) * terms.size() <= occurrences + 2) {
+				continue;
+			}
+			IRI iri;
+			do {
+				iri = IRI.create(NAMESPACE, "E" + next++);
+			} while (ontology.containsClassInSignature(iri));
+			names.put(ce, df.getOWLClass(iri));
+			for (OWLClassExpression part : terms) {
+				int[] count = counts.get(part);
+				if (count != null && !part.equals(ce)) {
+					count[0] -= occurrences - 2;
+				}
+			}
+		}
+		if (names.isEmpty()) {
+			return 0;
+		}
+
+		List<OWLOntologyChange> changes = new ArrayList<>();
+		for (OWLAxiom ax : ontology.getLogicalAxioms()) {
+			if (Collections.disjoint(ax.getNestedClassExpressions(), names.keySet())) {
+				continue;
+			}
+			changes.add(new RemoveAxiom(ontology, ax));
+			changes.add(new AddAxiom(ontology, (OWLAxiom) duplicateObject(ax)));
+		}
+		for (Map.Entry<OWLClassExpression, OWLClass> e : names.entrySet()) {
+			defining = e.getKey();
+			OWLClassExpression body = duplicateObject(e.getKey());
+			defining = null;
+			changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(e.getValue())));
+			changes.add(new AddAxiom(ontology, df.getOWLSubClassOfAxiom(e.getValue(), body)));
+			changes.add(new AddAxiom(ontology, df.getOWLSubClassOfAxiom(body, e.getValue())));
+		}
+		ontology.getOWLOntologyManager().applyChanges(changes);
+
+		OWLDocumentFormat format = ontology.getOWLOntologyManager().getOntologyFormat(ontology);
+		if (format instanceof PrefixDocumentFormat
+				&& !((PrefixDocumentFormat) format).containsPrefixMapping(PREFIX)) {
+			((PrefixDocumentFormat) format).setPrefix(PREFIX, NAMESPACE);
+		}
+		return names.size();
+	}
+
+	/**
+	 * @return the number of occurrences replaced by a name, outside the
+	 *         definitions
+	 */
+	int getOccurrencesReplaced() {
+		return occurrencesReplaced;
+	}
+
+	/**
+	 * @return the class expression terms of an expression, itself and the
+	 *         named classes in it included, each as often as it occurs
+	 */
+	private static List<OWLClassExpression> terms(OWLClassExpression ce) {
+		final List<OWLClassExpression> terms = new ArrayList<>();
+		walk(Collections.singleton(ce), false, new TermHandler() {
+			@Override
+			void found(OWLClassExpression part) {
+				terms.add(part);
+			}
+		});
+		return terms;
+	}
+
+	/**
+	 * Calls a handler for every class expression in the objects, or every
+	 * anonymous one, each time it occurs.
+	 */
+	private static void walk(Set<? extends OWLObject> objects, final boolean anonymousOnly,
+			final TermHandler handler) {
+		new OWLObjectWalker<>(Collections.unmodifiableSet(objects), true)
+				.walkStructure(new OWLObjectVisitorExAdapter<Object>(null) {
+					@Override
+					protected Object doDefault(OWLObject object) {
+						if (object instanceof OWLClassExpression
+								&& (!anonymousOnly
+										|| ((OWLClassExpression) object).isAnonymous())) {
+							handler.found((OWLClassExpression) object);
+						}
+						return null;
+					}
+				});
+	}
+
+	private abstract static class TermHandler {
+		abstract void found(OWLClassExpression ce);
+	}
+
+	/**
+	 * Makes the copy of a named expression its name.
+	 *
+	 * @return false if the expression is to be copied as usual
+	 */
+	private boolean replace(OWLClassExpression ce) {
+		OWLClass name = names.get(ce);
+		if (name == null || ce.equals(defining)) {
+			return false;
+		}
+		if (defining == null) {
+			occurrencesReplaced++;
+		}
+		setLastObject(name);
+		return true;
+	}
+
+	@Override
+	public void visit(OWLObjectIntersectionOf ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectUnionOf ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectComplementOf ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectOneOf ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectSomeValuesFrom ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectAllValuesFrom ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectHasValue ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectHasSelf ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectMinCardinality ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectExactCardinality ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLObjectMaxCardinality ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLDataSomeValuesFrom ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLDataAllValuesFrom ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLDataHasValue ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLDataMinCardinality ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLDataExactCardinality ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+
+	@Override
+	public void visit(OWLDataMaxCardinality ce) {
+		if (!replace(ce)) {
+			super.visit(ce);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import edu.buffalo.bmi.csneps.ConversionProgress;
+import edu.buffalo.bmi.csneps.ConversionProgress.Phase;
+import edu.buffalo.bmi.csneps.OWLCSNePSSyntaxRenderer;
+import edu.buffalo.bmi.csneps.RenderUnit;
+import edu.buffalo.bmi.csneps.SymbolTable;
+
+/**
+ * Renders an ontology in worker processes and merges what they render.
+ *
+ * The coordinator loads and prepares the ontology once, to split its
+ * rendering into units of about the same number of axioms, and lets it go
+ * before the workers start. Each worker is a JVM of its own, started with
+ * this one's JVM options, that takes units from a {@link WorkQueue} in a
+ * spool directory. Workers on other machines that share the spool
+ * directory can take units too, started with {@code --worker}.
+ *
+ * A worker that exits before the work is done is started again, up to
+ * {@link #MAX_RESTARTS} times, and its unit is handed to the next worker
+ * free. So is the unit of any worker that stops touching its claim for the
+ * lease. Once every unit is done, they are read back in order, which gives
+ * the same text as rendering in one process, and then the spool directory
+ * is removed. A coordinator started again on the same input and options
+ * keeps the units that are already done.
+ */
+class ConversionCoordinator {
+
+	static final int MAX_RESTARTS = 3;
+	private static final long POLL_MILLIS = 500;
+
+	private final ConverterOptions opts;
+	private final ConversionProgress progress;
+	private final File input;
+	private final List<Process> processes = new ArrayList<>();
+	private final List<String> ids = new ArrayList<>();
+	private final int[] restarts;
+	private final Set<String> stopped = new HashSet<>();
+	private WorkQueue queue;
+
+	/**
+	 * @param opts
+	 *        the conversion's options
+	 * @param progress
+	 *        where to report the units done, or null
+	 */
+	ConversionCoordinator(ConverterOptions opts, ConversionProgress progress) {
+		this.opts = opts;
+		this.progress = progress;
+		input = new File(opts.infilename).getAbsoluteFile();
+		restarts = new int[opts.workers];
+	}
+
+	/**
+	 * Renders the ontology with the workers, and returns once every unit
+	 * is done.
+	 *
+	 * @throws IOException
+	 *         if the spool directory cannot be used, or the workers fail
+	 */
+	void run() throws IOException, InterruptedException {
+		File spool = new File(opts.spool != null ? opts.spool : opts.outfilename + ".spool");
+		String settings = opts.renderSettings() + " units=" + opts.units;
+		if (new File(spool, "job.properties").exists()) {
+			WorkQueue old = WorkQueue.open(spool);
+			if (old.matches(input, settings)
+					&& (opts.symbolsFile == null || new File(opts.symbolsFile).exists())) {
+				queue = old;
+				queue.requeue();
+				System.err.println("Work queue: keeping " + queue.countDone() + " of "
+						+ queue.size() + " units already done in " + spool);
+			}
+		}
+		if (queue == null) {
+			queue = plan(spool, settings);
+		}
+
+		if (progress != null) {
+			progress.setPhase(Phase.WORKERS);
+			progress.setUnitTotals(queue.size(), queue.countDone());
+		}
+		long start = System.nanoTime();
+		for (int slot = 0; slot < opts.workers; slot++) {
+			processes.add(null);
+			ids.add(null);
+			startWorker(slot);
+		}
+		if (opts.workers == 0) {
+			System.err.println("Waiting for workers: start them with --worker "
+					+ spool.getAbsolutePath());
+		}
+		while (!queue.isFinished()) {
+			checkWorkers();
+			int released = queue.releaseClaims(stopped);
+			if (released > 0) {
+				System.err.println("Work queue: handed back " + released
+						+ " units of stopped or silent workers");
+			}
+			if (progress != null) {
+				progress.setUnitsDone(queue.countDone());
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+		for (Process p : processes) {
+			if (p != null && !p.waitFor(queue.getLeaseMillis(), TimeUnit.MILLISECONDS)) {
+				p.destroy();
+			}
+		}
+		int totalRestarts = 0;
+		for (int r : restarts) {
+			totalRestarts += r;
+		}
+		System.err.println("Workers: " + queue.size() + " units rendered in "
+				+ (System.nanoTime() - start) / 1000000 + " ms by " + opts.workers
+				+ " local workers, restarted " + totalRestarts + " times");
+		if (progress != null) {
+			progress.setUnitsDone(queue.size());
+		}
+	}
+
+	/**
+	 * Opens the text the workers rendered, merged in order, for reading.
+	 * Call {@link #finish()} once it has been read.
+	 *
+	 * @return a reader over the merged text
+	 */
+	Reader openMerged() {
+		return queue.openMerged();
+	}
+
+	/**
+	 * @return the number of lines the workers rendered, or -1 if not known
+	 */
+	long countLines() throws IOException {
+		return queue.countLines();
+	}
+
+	/**
+	 * Removes the spool directory.
+	 */
+	void finish() {
+		queue.delete();
+	}
+
+	/**
+	 * Loads and prepares the ontology to split it into units, and writes
+	 * the symbol dictionary if one is asked for.
+	 */
+	private WorkQueue plan(File spool, String settings) throws IOException {
+		OWLOntology ontology = Converter.load(opts, input);
+		if (ontology == null) {
+			throw new IOException("Could not load " + input);
+		}
+		Converter.prepare(opts, ontology);
+		SymbolTable symbols = Converter.configure(new OWLCSNePSSyntaxRenderer(), opts, ontology);
+		if (symbols != null) {
+			Converter.writeSymbols(opts, symbols);
+		}
+		List<RenderUnit> units = RenderUnit.plan(ontology, opts.units);
+		ontology.getOWLOntologyManager().removeOntology(ontology);
+
+		List<String> args = new ArrayList<>(opts.workerArgs);
+		args.add(input.getPath());
+		args.add(opts.outfilename);
+		return WorkQueue.create(spool, input, settings, args, units, opts.leaseSeconds);
+	}
+
+	/**
+	 * Starts workers again in place of those that have exited, as long as
+	 * there is work left and they have restarts left.
+	 */
+	private void checkWorkers() throws IOException {
+		boolean running = opts.workers == 0;
+		for (int slot = 0; slot < processes.size(); slot++) {
+			Process p = processes.get(slot);
+			if (p == null) {
+				continue;
+			}
+			if (p.isAlive()) {
+				running = true;
+				continue;
+			}
+			stopped.add(ids.get(slot));
+			if (queue.isFinished()) {
+				continue;
+			}
+			if (p.exitValue() != 0) {
+				File log = new File(queue.getLogDir(), ids.get(slot) + ".log");
+				if (restarts[slot] == MAX_RESTARTS) {
+					System.err.println("Worker " + ids.get(slot) + " failed; not restarting it again."
+							+ " See " + log);
+					processes.set(slot, null);
+					continue;
+				}
+				System.err.println("Worker " + ids.get(slot) + " exited with status "
+						+ p.exitValue() + "; restarting it. See " + log);
+				restarts[slot]++;
+			}
+			startWorker(slot);
+			running = true;
+		}
+		if (!running) {
+			throw new IOException("Every worker failed; see the logs in " + queue.getLogDir());
+		}
+	}
+
+	private void startWorker(int slot) throws IOException {
+		String id = "w" + slot + "." + restarts[slot];
+		if (stopped.contains(id)) {
+			// restarted after a clean exit
+			id += "." + System.currentTimeMillis();
+		}
+		List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Converter.class.getName());
+		command.add("--worker");
+		command.add(queue.getDir().getPath());
+		command.add("--worker-id");
+		command.add(id);
+
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(new File(queue.getLogDir(), id + ".log"));
+		processes.set(slot, pb.start());
+		ids.set(slot, id);
+	}
+}
@@ -1,75 +1,224 @@
 package edu.buffalo.bmi.converter;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Scanner;
 
 import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.FileDocumentSource;
 import org.semanticweb.owlapi.io.OWLRendererException;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.PrefixManager;
 
+import com.google.common.io.CountingOutputStream;
+
+import edu.buffalo.bmi.csneps.AnnotationOutput;
+import edu.buffalo.bmi.csneps.CSNePSSyntaxRenderer;
+import edu.buffalo.bmi.csneps.CheckpointListener;
+import edu.buffalo.bmi.csneps.ConversionProgress;
+import edu.buffalo.bmi.csneps.ConversionProgress.Phase;
+import edu.buffalo.bmi.csneps.EntityIndexOutput;
+import edu.buffalo.bmi.csneps.LiteralOutput;
+import edu.buffalo.bmi.csneps.MemoryBudget;
 import edu.buffalo.bmi.csneps.OWLCSNePSSyntaxRenderer;
+import edu.buffalo.bmi.csneps.OntologyAnalyzer;
+import edu.buffalo.bmi.csneps.PhaseEvent;
+import edu.buffalo.bmi.csneps.PrefixOptimizer;
+import edu.buffalo.bmi.csneps.RenderCache;
+import edu.buffalo.bmi.csneps.RenderCheckpoint;
+import edu.buffalo.bmi.csneps.SymbolTable;
 
 public class Converter {
 
+	private static final String CASEFRAMES = "res/caseframes.sneps";
+	private static final String PRELUDE_HEADER = "(in-ns 'csneps.core.snuser)\n"
+			+ "(clearkb true)\n(krnovice true)\n\n";
+
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args) {
 
-		if (args.length != 2) {
-			System.out.println("Usage: Converter <infile> <outfile>");
+		ConverterOptions opts = null;
+		try {
+			opts = ConverterOptions.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(ConverterOptions.USAGE);
 			System.exit(1);
 		}
 
-		String infilename = args[0];
-		String outfilename = args[1];
+		if (opts.workerSpool != null) {
+			RenderWorker.run(new File(opts.workerSpool), opts.workerId);
+			return;
+		}
+
+		String infilename = opts.infilename;
+		String outfilename = opts.outfilename;
+
+		if (opts.analyze) {
+			analyze(opts, new File(infilename));
+			return;
+		}
+
+		ConversionProgress progress = null;
+		ProgressReporter reporter = null;
+		if (opts.reportsProgress()) {
+			progress = new ConversionProgress();
+			reporter = new ProgressReporter(progress,
+					opts.progress ? System.err : null, opts.statusFile);
+			reporter.start(opts.progressIntervalSeconds);
+		}
 
 		File file = new File(infilename);
-		OWLOntologyManager manager;
-		OWLOntology localOntology = null;
+		File checkpointFile = new File(outfilename + ".ckpt");
+		CheckpointFile checkpoint = null;
+		if (opts.checkpoints()) {
+			if (opts.resume && checkpointFile.exists()) {
+				try {
+					checkpoint = CheckpointFile.read(checkpointFile);
+				} catch (IOException e) {
+					System.out.println(e.getMessage());
+					System.exit(1);
+				}
+				String mismatch = checkpoint.mismatch(file, opts.renderSettings());
+				if (mismatch != null) {
+					System.out.println("Cannot resume: " + mismatch);
+					System.exit(1);
+				}
+				System.err.println("Resuming from checkpoint at " + checkpoint.point);
+			} else {
+				checkpoint = new CheckpointFile(file, opts.renderSettings());
+			}
+		}
 
-		manager = OWLManager.createOWLOntologyManager();
+		AnnotationOutput annotations = null;
+		if (opts.annotationsFile != null) {
+			try {
+				annotations = checkpoint != null
+						? new AnnotationOutput(new File(opts.annotationsFile),
+								new File(opts.annotationsFile + ".idx"),
+								checkpoint.annotationsOffset, checkpoint.annotationsIndexOffset)
+						: new AnnotationOutput(new File(opts.annotationsFile),
+								new File(opts.annotationsFile + ".idx"));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 
-		try {
-			localOntology = manager.loadOntologyFromOntologyDocument(file);
-		} catch (OWLOntologyCreationException e) {
-			e.printStackTrace();
+		LiteralOutput literals = null;
+		if (opts.literalFile != null) {
+			try {
+				literals = new LiteralOutput(new File(opts.literalFile), opts.literalThreshold,
+						checkpoint != null ? checkpoint.literalsOffset : 0);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 
-		StringWriter sw = new StringWriter();
-		OWLCSNePSSyntaxRenderer renderer = new OWLCSNePSSyntaxRenderer();
+		MemoryBudget budget = null;
+		if (opts.maxHeapFraction > 0) {
+			budget = new MemoryBudget(opts.maxHeapFraction);
+		}
 
-		try {
-			renderer.render(localOntology, sw);
-		} catch (OWLRendererException e) {
-			e.printStackTrace();
+		RenderBuffer csnepsTerms = null;
+		LineCountingWriter bufferedLines = null;
+		CheckpointedOutput checkpointedTerms = null;
+		ConversionCoordinator coordinator = null;
+		Writer renderTarget = null;
+		if (opts.workers >= 0) {
+			// the workers' units are read back from the spool directory
+			coordinator = new ConversionCoordinator(opts, progress);
+		} else if (checkpoint != null) {
+			try {
+				checkpointedTerms = new CheckpointedOutput(new File(outfilename + ".part"),
+						checkpointFile, checkpoint, annotations, literals);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			renderTarget = checkpointedTerms;
+		} else {
+			csnepsTerms = new RenderBuffer(budget);
+			bufferedLines = new LineCountingWriter(csnepsTerms);
+			renderTarget = bufferedLines;
+		}
+
+		if (coordinator != null) {
+			try {
+				coordinator.run();
+			} catch (IOException | InterruptedException e) {
+				System.out.println(e.getMessage());
+				System.exit(1);
+			}
+		} else if (checkpoint == null || checkpoint.point == null
+				|| !checkpoint.isRenderComplete()) {
+			// Skipped when a conversion resumed after rendering finished,
+			// which only has the output left to write.
+			render(opts, file, progress, budget, annotations, literals, renderTarget,
+					checkpointedTerms, checkpoint != null ? checkpoint.point : null);
+		}
+
+		if (literals != null) {
+			try {
+				literals.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		if (annotations != null) {
+			try {
+				annotations.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		if (csnepsTerms != null && csnepsTerms.isSpilled()) {
+			System.err.println("Heap budget exceeded; rendered terms were spilled to disk");
 		}
 
-		String csnepsTerms = sw.toString();
+		if (progress != null) {
+			long renderedLines = -1;
+			try {
+				renderedLines = coordinator != null ? coordinator.countLines()
+						: checkpointedTerms != null ? checkpointedTerms.getLineCount()
+								: bufferedLines.getLines();
+			} catch (IOException e) {
+				// only the write phase ETA is lost
+			}
+			progress.setLinesTotal(renderedLines);
+			progress.setPhase(Phase.WRITE);
+		}
 
+		PhaseEvent preludeEvent = new PhaseEvent("caseframe prelude");
 		PrintWriter writer = null;
+		CountingOutputStream out = null;
 
 		try {
-			writer = new PrintWriter(outfilename);
+			out = new CountingOutputStream(new BufferedOutputStream(
+					new FileOutputStream(outfilename)));
+			writer = new PrintWriter(new OutputStreamWriter(out));
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		}
 
-		writer.println("(in-ns 'csneps.core.snuser)");
-		writer.println("(clearkb true)");
-		writer.println("(krnovice true)");
-		writer.println();
+		writer.print(PRELUDE_HEADER);
 		
 		FileReader cfreader = null;
 		try {
-			cfreader = new FileReader("res/caseframes.sneps");
+			cfreader = new FileReader(CASEFRAMES);
 			int c = cfreader.read();
 			while (c != -1) {
 				writer.write(c);
@@ -82,17 +231,279 @@ public class Converter {
 
 		writer.println();
 		writer.println();
+		preludeEvent.commit();
 
-		Scanner scanner = new Scanner(csnepsTerms);
-		while (scanner.hasNextLine()) {
-			String line = scanner.nextLine();
-			if (line.startsWith("(")) {
-				writer.println("(assert '" + line + ")");
-			} else
-				writer.println(line);
+		PhaseEvent writeEvent = new PhaseEvent(Phase.WRITE.toString());
+		Scanner scanner = null;
+		try {
+			scanner = new Scanner(coordinator != null ? coordinator.openMerged()
+					: checkpointedTerms != null ? checkpointedTerms.openReader()
+							: csnepsTerms.openReader());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		AssertionWriter assertions = new AssertionWriter(writer, opts.batchSize);
+		EntityIndexOutput index = null;
+		long lines = 0;
+		try {
+			if (opts.entityIndex) {
+				index = new EntityIndexOutput(new File(outfilename + ".idx"));
+				writer.flush();
+				assertions.setIndex(index, out.getCount(), Charset.defaultCharset());
+			}
+			while (scanner.hasNextLine()) {
+				assertions.writeLine(scanner.nextLine());
+				if (progress != null && (++lines & 0xfff) == 0) {
+					writer.flush();
+					progress.setWritten(lines, out.getCount());
+				}
+			}
+			assertions.finish();
+			if (index != null) {
+				index.close();
+				System.err.println("Entity index: " + index.getBlockCount() + " blocks in "
+						+ outfilename + ".idx");
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		scanner.close();
 
 		writer.close();
+		writeEvent.commit();
+
+		if (coordinator != null) {
+			coordinator.finish();
+		} else if (checkpointedTerms != null) {
+			checkpointedTerms.dispose();
+		} else {
+			csnepsTerms.dispose();
+		}
+
+		if (reporter != null) {
+			progress.setWritten(lines, out.getCount());
+			reporter.stop();
+		}
+	}
+
+	/**
+	 * Loads, prepares and renders the ontology.
+	 */
+	private static void render(ConverterOptions opts, File file, ConversionProgress progress,
+			MemoryBudget budget, AnnotationOutput annotations, LiteralOutput literals,
+			Writer renderTarget, CheckpointListener checkpoints, RenderCheckpoint resumePoint) {
+		OWLOntology localOntology = load(opts, file);
+		OWLOntologyManager manager = localOntology.getOWLOntologyManager();
+		prepare(opts, localOntology);
+
+		OWLCSNePSSyntaxRenderer renderer = new OWLCSNePSSyntaxRenderer();
+		renderer.setProgress(progress);
+		renderer.setMemoryBudget(budget);
+		renderer.setAnnotationOutput(annotations);
+		renderer.setLiteralOutput(literals);
+		if (checkpoints != null) {
+			renderer.setCheckpointListener(checkpoints, opts.checkpointIntervalSeconds * 1000);
+			renderer.setResumePoint(resumePoint);
+		}
+		SymbolTable symbols = configure(renderer, opts, localOntology);
+		if (symbols != null) {
+			writeSymbols(opts, symbols);
+		}
+		RenderCache cache = null;
+		if (opts.renderCache != null) {
+			cache = new RenderCache(new File(opts.renderCache));
+			renderer.setRenderCache(cache);
+		}
+
+		try {
+			renderer.render(localOntology, renderTarget);
+		} catch (OWLRendererException e) {
+			e.printStackTrace();
+		}
+
+		if (cache != null) {
+			try {
+				cache.commit();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			System.err.println("Render cache: reused " + cache.getHits() + " of "
+					+ (cache.getHits() + cache.getMisses()) + " entity axiom groups");
+		}
+
+		// The ontology is no longer needed; let it go before writing.
+		manager.removeOntology(localOntology);
+	}
+
+	/**
+	 * Applies the options that decide what the renderer writes, which are
+	 * the same for a whole conversion and for a worker rendering part of it.
+	 *
+	 * @return the symbol table the renderer writes with, or null for none
+	 */
+	static SymbolTable configure(OWLCSNePSSyntaxRenderer renderer, ConverterOptions opts,
+			OWLOntology ontology) {
+		renderer.setCompileRules(opts.compileSwrl);
+		renderer.setSharedArbitraries(opts.sharedArbitraries);
+		renderer.setBlockMarks(opts.entityIndex);
+		if (opts.autoPrefixes) {
+			renderer.setPrefixManager(autoPrefixes(ontology));
+		}
+		SymbolTable symbols = null;
+		if (opts.symbolsFile != null) {
+			symbols = SymbolTable.build(ontology);
+			renderer.setSymbolTable(symbols);
+		}
+		return symbols;
+	}
+
+	static void writeSymbols(ConverterOptions opts, SymbolTable symbols) {
+		try {
+			symbols.write(new File(opts.symbolsFile));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.err.println("Symbols: " + symbols.size() + " entity IRIs, dictionary in "
+				+ opts.symbolsFile);
+	}
+
+	/**
+	 * Loads and prepares the ontology as for rendering, then reports what
+	 * rendering it would produce.
+	 */
+	private static void analyze(ConverterOptions opts, File file) {
+		OWLOntology localOntology = load(opts, file);
+		prepare(opts, localOntology);
+
+		OntologyAnalyzer analyzer = null;
+		try {
+			analyzer = new OntologyAnalyzer(localOntology,
+					opts.autoPrefixes ? autoPrefixes(localOntology)
+							: CSNePSSyntaxRenderer.createPrefixManager(localOntology),
+					OntologyAnalyzer.readCaseframeSymbols(new File(CASEFRAMES)));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		analyzer.setCompileRules(opts.compileSwrl);
+		analyzer.setSharedArbitraries(opts.sharedArbitraries);
+		if (opts.symbolsFile != null) {
+			analyzer.setSymbolTable(SymbolTable.build(localOntology));
+		}
+		analyzer.analyze();
+		// main writes the header, the caseframes, then two line breaks
+		long prelude = PRELUDE_HEADER.length() + new File(CASEFRAMES).length() + 2;
+		analyzer.writeReport(System.out, prelude);
+	}
+
+	/**
+	 * @return the ontology's prefixes, with short ones added for its
+	 *         undeclared namespaces
+	 */
+	private static PrefixManager autoPrefixes(OWLOntology localOntology) {
+		PrefixManager prefixes = CSNePSSyntaxRenderer.createPrefixManager(localOntology);
+		PrefixOptimizer optimizer = new PrefixOptimizer(prefixes);
+		optimizer.optimize(localOntology);
+		System.err.println("Automatic prefixes: added " + optimizer.getPrefixesAdded()
+				+ " for " + optimizer.getNamespacesSeen()
+				+ " undeclared namespaces, saving about " + optimizer.getBytesSaved()
+				+ " bytes");
+		return prefixes;
+	}
+
+	/**
+	 * Loads the ontology, leaving out the axioms the load filters drop, and,
+	 * if a seed file is given, extracts its module.
+	 */
+	static OWLOntology load(ConverterOptions opts, File file) {
+		OWLOntologyManager manager = null;
+		OWLOntology localOntology = null;
+
+		if (opts.fastStart) {
+			try {
+				manager = FastStartManager.create(file);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (manager == null) {
+			manager = OWLManager.createOWLOntologyManager();
+		}
+		AxiomFilter filter = opts.createAxiomFilter();
+		OWLOntologyLoaderConfiguration config = new OWLOntologyLoaderConfiguration();
+		if (filter != null) {
+			filter.install(manager);
+			config = filter.configure(config);
+		}
+
+		PhaseEvent loadEvent = new PhaseEvent(Phase.LOAD.toString());
+		try {
+			localOntology = manager.loadOntologyFromOntologyDocument(new FileDocumentSource(file),
+					config);
+		} catch (OWLOntologyCreationException e) {
+			e.printStackTrace();
+		}
+		if (filter != null) {
+			filter.finish();
+			System.err.println("Load filters: dropped " + filter.getDropped()
+					+ " axioms, stripped annotations from " + filter.getStripped());
+		}
+		if (localOntology != null) {
+			loadEvent.axioms = localOntology.getAxiomCount();
+		}
+		loadEvent.commit();
+
+		if (opts.seedFile != null) {
+			try {
+				localOntology = ModuleSlicer.extract(manager, localOntology,
+						ModuleSlicer.readSeedSignature(new File(opts.seedFile), localOntology),
+						opts.moduleType);
+			} catch (IOException | OWLOntologyCreationException e) {
+				e.printStackTrace();
+			}
+		}
+		return localOntology;
+	}
+
+	/**
+	 * Applies the optional rewrites the options ask for.
+	 */
+	static void prepare(ConverterOptions opts, OWLOntology localOntology) {
+		OWLOntologyManager manager = localOntology.getOWLOntologyManager();
+		if (opts.normalize) {
+			System.err.println("Before normalisation: "
+					+ ClassExpressionNormalizer.measure(localOntology));
+			int changed = new ClassExpressionNormalizer(manager.getOWLDataFactory())
+					.normalize(localOntology);
+			System.err.println("After normalisation:  "
+					+ ClassExpressionNormalizer.measure(localOntology) + " (" + changed
+					+ " axioms rewritten)");
+		}
+
+		if (opts.reduceSubclass) {
+			SubClassReducer reducer = new SubClassReducer(localOntology);
+			int removed = reducer.reduce();
+			System.err.println("Transitive reduction removed " + removed + " of "
+					+ reducer.getEdgeCount() + " named SubClassOf axioms");
+		}
+
+		if (opts.maxOperands > 0) {
+			AxiomChunker chunker = new AxiomChunker(manager.getOWLDataFactory(),
+					opts.maxOperands);
+			int split = chunker.chunk(localOntology);
+			System.err.println("Chunking: split " + split + " axioms with more than "
+					+ opts.maxOperands + " operands (" + chunker.report() + ")");
+		}
+
+		if (opts.shareExpressions > 0) {
+			ClassExpressionNormalizer.Stats before = ClassExpressionNormalizer
+					.measure(localOntology);
+			ClassExpressionSharer sharer = new ClassExpressionSharer(
+					manager.getOWLDataFactory(), opts.shareExpressions, opts.shareMinSize);
+			int named = sharer.share(localOntology);
+			System.err.println("Sharing: named " + named + " class expressions, replacing "
+					+ sharer.getOccurrencesReplaced() + " occurrences; class expression terms "
+					+ before.terms + " -> " + ClassExpressionNormalizer.measure(localOntology).terms);
+		}
 	}
 }
@@ -0,0 +1,423 @@
+package edu.buffalo.bmi.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+
+import uk.ac.manchester.cs.owlapi.modularity.ModuleType;
+
+/**
+ * Command line options for the {@link Converter}.
+ */
+class ConverterOptions {
+
+	static final long DEFAULT_CHECKPOINT_INTERVAL = 300;
+	static final int DEFAULT_LITERAL_THRESHOLD = 1024;
+	static final int DEFAULT_SHARE_MIN_SIZE = 4;
+	static final int UNITS_PER_WORKER = 4;
+	static final long DEFAULT_LEASE_SECONDS = 60;
+
+	/** Options for the coordinator or a worker, which workers are not given. */
+	private static final List<String> COORDINATION_OPTIONS = Arrays.asList("--progress",
+			"--status-file", "--progress-interval", "--workers", "--units", "--spool", "--lease",
+			"--worker", "--worker-id");
+
+	static final String USAGE = "Usage: Converter [options] <infile> <outfile>\n"
+			+ "       Converter --analyze [options] <infile>\n"
+			+ "       Converter --worker <spool> [--worker-id <name>]\n"
+			+ "Options:\n"
+			+ "  --analyze               estimate the output's size and make-up instead\n"
+			+ "                          of converting\n"
+			+ "  --progress              report progress to stderr\n"
+			+ "  --status-file <file>    keep the latest progress report in <file>\n"
+			+ "  --progress-interval <s> seconds between progress reports (default 5)\n"
+			+ "  --max-heap-fraction <f> spill rendered output and bookkeeping to disk\n"
+			+ "                          once more than <f> of the heap is in use\n"
+			+ "  --seed-file <file>      convert only the locality module for the IRIs\n"
+			+ "                          (or prefixes ending in '*') listed in <file>\n"
+			+ "  --module-type <type>    STAR (default), BOT or TOP\n"
+			+ "  --axiom-types <list>    load only axioms of these comma-separated types\n"
+			+ "  --no-annotations        load no annotation axioms or axiom annotations\n"
+			+ "  --annotation-properties <list>\n"
+			+ "                          load only annotations with these comma-separated\n"
+			+ "                          property IRIs\n"
+			+ "  --exclude-namespace <ns>\n"
+			+ "                          load no axioms about entities whose IRIs start\n"
+			+ "                          with <ns>; may be repeated\n"
+			+ "  --batch-size <n>        assert up to <n> terms per top-level form (default 1)\n"
+			+ "  --compile-swrl          translate SWRL rules into CSNePS rules\n"
+			+ "  --shared-arbitraries    give each class one arbitrary for all its\n"
+			+ "                          SubClassOf axioms\n"
+			+ "  --reduce-subclass       drop told SubClassOf axioms implied by the others\n"
+			+ "  --normalize             flatten and simplify class expressions first\n"
+			+ "  --max-operands <n>      split axioms with more than <n> operands into\n"
+			+ "                          equivalent smaller ones\n"
+			+ "  --share-expressions <n> name class expressions that occur <n> or more\n"
+			+ "                          times and write each out once\n"
+			+ "  --share-min-size <n>    only name expressions of at least <n> terms\n"
+			+ "                          (default 4)\n"
+			+ "  --annotations-file <f>  write annotation assertions to <f>, indexed\n"
+			+ "                          by subject in <f>.idx, instead of inline\n"
+			+ "  --checkpoint-interval <s>\n"
+			+ "                          checkpoint rendering every <s> seconds\n"
+			+ "  --resume                carry on from the last checkpoint for <outfile>\n"
+			+ "                          (checkpoints every 300 s unless set)\n"
+			+ "  --render-cache <file>   reuse entity renderings cached in <file>\n"
+			+ "  --auto-prefixes         add short prefixes for undeclared namespaces\n"
+			+ "  --symbols <file>        write short symbols for entity IRIs, with the\n"
+			+ "                          symbol to IRI dictionary in <file>\n"
+			+ "  --fast-start            set up only the parser for the input's format\n"
+			+ "  --entity-index          index each entity's output in <outfile>.idx\n"
+			+ "  --literal-file <f>      move long literals to <f>, leaving references\n"
+			+ "  --literal-threshold <n> characters above which a literal is moved\n"
+			+ "                          (default 1024)\n"
+			+ "  --workers <n>           render in <n> worker processes and merge their\n"
+			+ "                          output; 0 to leave it to workers started with\n"
+			+ "                          --worker\n"
+			+ "  --units <n>             split the rendering into <n> units for the\n"
+			+ "                          workers (default 4 per worker)\n"
+			+ "  --spool <dir>           the workers' queue (default <outfile>.spool)\n"
+			+ "  --lease <s>             seconds a worker may go silent before its unit is\n"
+			+ "                          given to another (default 60)\n"
+			+ "  --worker <spool>        render units from the queue in <spool>\n"
+			+ "  --worker-id <name>      the worker's name in the queue";
+
+	String infilename;
+	String outfilename;
+
+	boolean analyze = false;
+	boolean progress = false;
+	String statusFile = null;
+	long progressIntervalSeconds = 5;
+	double maxHeapFraction = 0;
+	String seedFile = null;
+	ModuleType moduleType = ModuleType.STAR;
+	Set<AxiomType<?>> axiomTypes = null;
+	boolean loadAnnotations = true;
+	Set<IRI> annotationProperties = null;
+	List<String> excludedNamespaces = new ArrayList<>();
+	int batchSize = 1;
+	boolean compileSwrl = false;
+	boolean sharedArbitraries = false;
+	boolean reduceSubclass = false;
+	boolean normalize = false;
+	int maxOperands = 0;
+	int shareExpressions = 0;
+	int shareMinSize = DEFAULT_SHARE_MIN_SIZE;
+	String annotationsFile = null;
+	long checkpointIntervalSeconds = 0;
+	boolean resume = false;
+	String renderCache = null;
+	boolean autoPrefixes = false;
+	String symbolsFile = null;
+	boolean fastStart = false;
+	boolean entityIndex = false;
+	String literalFile = null;
+	int literalThreshold = DEFAULT_LITERAL_THRESHOLD;
+	int workers = -1;
+	int units = 0;
+	String spool = null;
+	long leaseSeconds = DEFAULT_LEASE_SECONDS;
+	String workerSpool = null;
+	String workerId = null;
+	/** The arguments, less the positional ones, that workers are given. */
+	List<String> workerArgs = new ArrayList<>();
+
+	/**
+	 * @param args
+	 *        the command line arguments
+	 * @return the parsed options
+	 * @throws IllegalArgumentException
+	 *         if the arguments are not valid
+	 */
+	static ConverterOptions parse(String[] args) {
+		ConverterOptions opts = new ConverterOptions();
+		List<String> positional = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				positional.add(arg);
+				continue;
+			}
+			int first = i;
+			switch (arg) {
+			case "--analyze":
+				opts.analyze = true;
+				break;
+			case "--progress":
+				opts.progress = true;
+				break;
+			case "--status-file":
+				opts.statusFile = value(args, ++i, arg);
+				break;
+			case "--progress-interval":
+				opts.progressIntervalSeconds = longValue(args, ++i, arg);
+				if (opts.progressIntervalSeconds < 1) {
+					throw new IllegalArgumentException(arg + " must be at least 1");
+				}
+				break;
+			case "--max-heap-fraction":
+				opts.maxHeapFraction = doubleValue(args, ++i, arg);
+				if (opts.maxHeapFraction <= 0 || opts.maxHeapFraction > 1) {
+					throw new IllegalArgumentException(arg + " must be in (0, 1]");
+				}
+				break;
+			case "--seed-file":
+				opts.seedFile = value(args, ++i, arg);
+				break;
+			case "--module-type":
+				try {
+					opts.moduleType = ModuleType.valueOf(value(args, ++i, arg).toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(arg + " must be STAR, BOT or TOP");
+				}
+				break;
+			case "--axiom-types":
+				opts.axiomTypes = new HashSet<>();
+				for (String name : value(args, ++i, arg).split(",")) {
+					AxiomType<?> type = AxiomType.getAxiomType(name.trim());
+					if (type == null) {
+						throw new IllegalArgumentException("Unknown axiom type " + name.trim()
+								+ "; expected names such as SubClassOf or ClassAssertion");
+					}
+					opts.axiomTypes.add(type);
+				}
+				break;
+			case "--no-annotations":
+				opts.loadAnnotations = false;
+				break;
+			case "--annotation-properties":
+				opts.annotationProperties = new HashSet<>();
+				for (String iri : value(args, ++i, arg).split(",")) {
+					opts.annotationProperties.add(IRI.create(iri.trim().replaceAll("^<|>$", "")));
+				}
+				break;
+			case "--exclude-namespace":
+				opts.excludedNamespaces.add(value(args, ++i, arg));
+				break;
+			case "--batch-size":
+				opts.batchSize = (int) longValue(args, ++i, arg);
+				if (opts.batchSize < 1) {
+					throw new IllegalArgumentException(arg + " must be at least 1");
+				}
+				break;
+			case "--compile-swrl":
+				opts.compileSwrl = true;
+				break;
+			case "--shared-arbitraries":
+				opts.sharedArbitraries = true;
+				break;
+			case "--reduce-subclass":
+				opts.reduceSubclass = true;
+				break;
+			case "--normalize":
+				opts.normalize = true;
+				break;
+			case "--max-operands":
+				opts.maxOperands = (int) longValue(args, ++i, arg);
+				if (opts.maxOperands < 2) {
+					throw new IllegalArgumentException(arg + " must be at least 2");
+				}
+				break;
+			case "--share-expressions":
+				opts.shareExpressions = (int) longValue(args, ++i, arg);
+				if (opts.shareExpressions < 2) {
+					throw new IllegalArgumentException(arg + " must be at least 2");
+				}
+				break;
+			case "--share-min-size":
+				opts.shareMinSize = (int) longValue(args, ++i, arg);
+				if (opts.shareMinSize < 1) {
+					throw new IllegalArgumentException(arg + " must be at least 1");
+				}
+				break;
+			case "--annotations-file":
+				opts.annotationsFile = value(args, ++i, arg);
+				break;
+			case "--checkpoint-interval":
+				opts.checkpointIntervalSeconds = longValue(args, ++i, arg);
+				if (opts.checkpointIntervalSeconds < 1) {
+					throw new IllegalArgumentException(arg + " must be at least 1");
+				}
+				break;
+			case "--resume":
+				opts.resume = true;
+				break;
+			case "--render-cache":
+				opts.renderCache = value(args, ++i, arg);
+				break;
+			case "--auto-prefixes":
+				opts.autoPrefixes = true;
+				break;
+			case "--symbols":
+				opts.symbolsFile = value(args, ++i, arg);
+				break;
+			case "--fast-start":
+				opts.fastStart = true;
+				break;
+			case "--entity-index":
+				opts.entityIndex = true;
+				break;
+			case "--literal-file":
+				opts.literalFile = value(args, ++i, arg);
+				break;
+			case "--literal-threshold":
+				opts.literalThreshold = (int) longValue(args, ++i, arg);
+				if (opts.literalThreshold < 0) {
+					throw new IllegalArgumentException(arg + " must not be negative");
+				}
+				break;
+			case "--workers":
+				opts.workers = (int) longValue(args, ++i, arg);
+				if (opts.workers < 0) {
+					throw new IllegalArgumentException(arg + " must not be negative");
+				}
+				break;
+			case "--units":
+				opts.units = (int) longValue(args, ++i, arg);
+				if (opts.units < 1) {
+					throw new IllegalArgumentException(arg + " must be at least 1");
+				}
+				break;
+			case "--spool":
+				opts.spool = value(args, ++i, arg);
+				break;
+			case "--lease":
+				opts.leaseSeconds = longValue(args, ++i, arg);
+				if (opts.leaseSeconds < 4) {
+					throw new IllegalArgumentException(arg + " must be at least 4");
+				}
+				break;
+			case "--worker":
+				opts.workerSpool = value(args, ++i, arg);
+				break;
+			case "--worker-id":
+				opts.workerId = value(args, ++i, arg);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+			if (!COORDINATION_OPTIONS.contains(arg)) {
+				opts.workerArgs.addAll(Arrays.asList(args).subList(first, i + 1));
+			}
+		}
+
+		if (opts.workerSpool != null) {
+			if (!positional.isEmpty()) {
+				throw new IllegalArgumentException(
+						"A worker takes its options and files from the spool directory");
+			}
+			return opts;
+		}
+
+		if (opts.analyze && positional.size() == 1) {
+			opts.infilename = positional.get(0);
+			return opts;
+		}
+		if (positional.size() != 2) {
+			throw new IllegalArgumentException("Expected <infile> and <outfile>");
+		}
+		opts.infilename = positional.get(0);
+		opts.outfilename = positional.get(1);
+		if (opts.resume && opts.checkpointIntervalSeconds == 0) {
+			opts.checkpointIntervalSeconds = DEFAULT_CHECKPOINT_INTERVAL;
+		}
+		if (opts.workers >= 0) {
+			// these write to files of their own as the whole ontology is
+			// rendered, which workers rendering parts of it cannot share
+			String conflict = opts.checkpoints() ? "--checkpoint-interval or --resume"
+					: opts.renderCache != null ? "--render-cache"
+							: opts.annotationsFile != null ? "--annotations-file"
+									: opts.literalFile != null ? "--literal-file" : null;
+			if (conflict != null) {
+				throw new IllegalArgumentException("--workers cannot be combined with " + conflict);
+			}
+			if (opts.units == 0) {
+				opts.units = Math.max(1, opts.workers) * UNITS_PER_WORKER;
+			}
+		} else if (opts.units > 0 || opts.spool != null) {
+			throw new IllegalArgumentException("--units and --spool need --workers");
+		}
+		return opts;
+	}
+
+	/**
+	 * @return the filter the load options ask for, or null if they ask for
+	 *         none
+	 */
+	AxiomFilter createAxiomFilter() {
+		if (axiomTypes == null && loadAnnotations && annotationProperties == null
+				&& excludedNamespaces.isEmpty()) {
+			return null;
+		}
+		return new AxiomFilter(axiomTypes, loadAnnotations, annotationProperties,
+				excludedNamespaces);
+	}
+
+	boolean reportsProgress() {
+		return progress || statusFile != null;
+	}
+
+	boolean checkpoints() {
+		return checkpointIntervalSeconds > 0;
+	}
+
+	/**
+	 * @return the options that change what is rendered, which a resumed
+	 *         conversion must share with the one that made the checkpoint
+	 */
+	String renderSettings() {
+		return "seed-file=" + seedFile + " module-type=" + moduleType.name()
+				+ " axiom-types=" + (axiomTypes == null ? null : new TreeSet<>(names(axiomTypes)))
+				+ " annotations=" + loadAnnotations
+				+ " annotation-properties=" + (annotationProperties == null ? null
+						: new TreeSet<>(annotationProperties))
+				+ " exclude-namespaces=" + excludedNamespaces
+				+ " normalize=" + normalize + " reduce-subclass=" + reduceSubclass
+				+ " compile-swrl=" + compileSwrl + " shared-arbitraries=" + sharedArbitraries
+				+ " max-operands=" + maxOperands
+				+ " share-expressions=" + shareExpressions + " share-min-size=" + shareMinSize
+				+ " annotations-file=" + annotationsFile
+				+ " auto-prefixes=" + autoPrefixes + " symbols=" + (symbolsFile != null)
+				+ " literal-file=" + literalFile + " literal-threshold=" + literalThreshold
+				+ " entity-index=" + entityIndex;
+	}
+
+	private static List<String> names(Set<AxiomType<?>> types) {
+		List<String> names = new ArrayList<>();
+		for (AxiomType<?> type : types) {
+			names.add(type.getName());
+		}
+		return names;
+	}
+
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException(option + " requires a value");
+		}
+		return args[i];
+	}
+
+	private static double doubleValue(String[] args, int i, String option) {
+		try {
+			return Double.parseDouble(value(args, i, option));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " expects a number");
+		}
+	}
+
+	private static long longValue(String[] args, int i, String option) {
+		try {
+			return Long.parseLong(value(args, i, option));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " expects a number");
+		}
+	}
+}
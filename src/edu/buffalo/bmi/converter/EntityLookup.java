@@ -0,0 +1,38 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.buffalo.bmi.csneps.EntityIndex;
+
+/**
+ * Prints the assertions written for given entities, using the index that
+ * {@code --entity-index} writes next to the output.
+ */
+public class EntityLookup {
+
+	static final String USAGE = "Usage: EntityLookup <outfile> <IRI>...\n"
+			+ "Prints the assertions <outfile> has for each IRI, read through <outfile>.idx";
+
+	/**
+	 * @param args
+	 *        the output file, then the entity IRIs
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println(USAGE);
+			System.exit(1);
+		}
+		try (EntityIndex index = new EntityIndex(new File(args[0]),
+				new File(args[0] + ".idx"))) {
+			for (int i = 1; i < args.length; i++) {
+				for (String line : index.getAssertions(args[i])) {
+					System.out.println(line);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.semanticweb.owlapi.functional.parser.OWLFunctionalSyntaxOWLParserFactory;
+import org.semanticweb.owlapi.io.OWLParserFactory;
+import org.semanticweb.owlapi.manchestersyntax.parser.ManchesterOWLSyntaxOntologyParserFactory;
+import org.semanticweb.owlapi.model.OWLOntologyBuilder;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.oboformat.OBOFormatOWLAPIParserFactory;
+import org.semanticweb.owlapi.owlxml.parser.OWLXMLParserFactory;
+import org.semanticweb.owlapi.rdf.rdfxml.parser.RDFXMLParserFactory;
+import org.semanticweb.owlapi.rdf.turtle.parser.TurtleOntologyParserFactory;
+
+import uk.ac.manchester.cs.owl.owlapi.EmptyInMemOWLOntologyFactory;
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLOntologyBuilderImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLOntologyManagerImpl;
+import uk.ac.manchester.cs.owl.owlapi.ParsableOWLOntologyFactory;
+
+/**
+ * Builds an ontology manager that knows only the parser for the input's
+ * format, instead of the one from {@code OWLManager}, which sets up every
+ * parser and storer the OWL API has through dependency injection. The
+ * format is guessed from the first few kilobytes of the file.
+ */
+class FastStartManager {
+
+	private static final int SNIFF_BYTES = 4096;
+
+	/**
+	 * The formats that can be recognised from the start of a file.
+	 */
+	enum Format {
+		FUNCTIONAL, RDF_XML, OWL_XML, TURTLE, MANCHESTER, OBO;
+
+		OWLParserFactory parserFactory() {
+			switch (this) {
+			case FUNCTIONAL:
+				return new OWLFunctionalSyntaxOWLParserFactory();
+			case RDF_XML:
+				return new RDFXMLParserFactory();
+			case OWL_XML:
+				return new OWLXMLParserFactory();
+			case TURTLE:
+				return new TurtleOntologyParserFactory();
+			case MANCHESTER:
+				return new ManchesterOWLSyntaxOntologyParserFactory();
+			default:
+				return new OBOFormatOWLAPIParserFactory();
+			}
+		}
+	}
+
+	/**
+	 * Creates a manager for loading the given file.
+	 *
+	 * @param file
+	 *        the ontology document
+	 * @return a manager with just the parser for the file's format, or null
+	 *         if the format was not recognised
+	 * @throws IOException
+	 *         if the file cannot be read
+	 */
+	static OWLOntologyManager create(File file) throws IOException {
+		Format format = sniff(file);
+		if (format == null) {
+			return null;
+		}
+		OWLOntologyManager manager = new OWLOntologyManagerImpl(new OWLDataFactoryImpl());
+		OWLOntologyBuilder builder = new OWLOntologyBuilderImpl();
+		manager.getOntologyFactories().add(new EmptyInMemOWLOntologyFactory(builder),
+				new ParsableOWLOntologyFactory(builder));
+		manager.getOntologyParsers().add(format.parserFactory());
+		return manager;
+	}
+
+	/**
+	 * Guesses the format of an ontology document from its first
+	 * significant text, after any byte order mark, white space, comments
+	 * and XML prolog.
+	 *
+	 * @param file
+	 *        the ontology document
+	 * @return the format, or null if it was not recognised
+	 * @throws IOException
+	 *         if the file cannot be read
+	 */
+	static Format sniff(File file) throws IOException {
+		byte[] buf = new byte[SNIFF_BYTES];
+		int n = 0;
+		try (InputStream in = new FileInputStream(file)) {
+			int r;
+			while (n < buf.length && (r = in.read(buf, n, buf.length - n)) > 0) {
+				n += r;
+			}
+		}
+		String head = new String(buf, 0, n, StandardCharsets.UTF_8);
+		if (head.startsWith("\uFEFF")) {
+			head = head.substring(1);
+		}
+
+		if (head.trim().startsWith("<")) {
+			// OWL/XML documents have an Ontology root element; RDF/XML ones
+			// have rdf:RDF; anything else is left to the full manager
+			if (head.contains("<rdf:RDF")) {
+				return Format.RDF_XML;
+			}
+			if (head.contains("<Ontology")) {
+				return Format.OWL_XML;
+			}
+			return null;
+		}
+		if (head.contains("format-version:") || head.contains("[Term]")
+				|| head.contains("[Typedef]")) {
+			return Format.OBO;
+		}
+
+		String start = firstStatement(head);
+		if (start.startsWith("Prefix(") || start.startsWith("Ontology(")) {
+			return Format.FUNCTIONAL;
+		}
+		if (start.startsWith("Prefix:") || start.startsWith("Ontology:")) {
+			return Format.MANCHESTER;
+		}
+		if (start.startsWith("@prefix") || start.startsWith("@base")
+				|| start.startsWith("PREFIX") || start.startsWith("BASE")) {
+			return Format.TURTLE;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the text from the first line that is neither blank nor a
+	 *         comment, with spaces before an opening parenthesis removed
+	 */
+	private static String firstStatement(String head) {
+		for (String line : head.split("\n")) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				return line.replaceFirst("^(\\w+)\\s+\\(", "$1(");
+			}
+		}
+		return "";
+	}
+}
@@ -0,0 +1,53 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Counts the lines written through it, so that the write phase knows how
+ * many rendered lines it has to copy.
+ */
+class LineCountingWriter extends FilterWriter {
+
+	private long lines;
+
+	LineCountingWriter(Writer out) {
+		super(out);
+	}
+
+	/**
+	 * @return the number of line breaks written so far
+	 */
+	long getLines() {
+		return lines;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (c == '\n') {
+			lines++;
+		}
+		out.write(c);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			if (cbuf[i] == '\n') {
+				lines++;
+			}
+		}
+		out.write(cbuf, off, len);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			if (str.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		out.write(str, off, len);
+	}
+}
@@ -0,0 +1,142 @@
+package edu.buffalo.bmi.converter;
+
+import static org.semanticweb.owlapi.model.parameters.Imports.INCLUDED;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.SetOntologyID;
+
+import uk.ac.manchester.cs.owlapi.modularity.ModuleType;
+import uk.ac.manchester.cs.owlapi.modularity.SyntacticLocalityModuleExtractor;
+
+/**
+ * Cuts an ontology down to the syntactic-locality module for a seed
+ * signature, so that only the slice around the seeds is rendered.
+ */
+class ModuleSlicer {
+
+	/**
+	 * Reads a seed signature. Each non-blank line that does not start with
+	 * '#' is either a full IRI, optionally in angle brackets, or an IRI
+	 * prefix ending in '*', which selects every entity whose IRI starts with
+	 * it.
+	 *
+	 * @param seedFile
+	 *        the file of seeds
+	 * @param ontology
+	 *        the ontology the seeds refer to
+	 * @return the entities in the ontology named by the seeds
+	 * @throws IOException
+	 *         if the file cannot be read
+	 */
+	static Set<OWLEntity> readSeedSignature(File seedFile, OWLOntology ontology)
+			throws IOException {
+		Set<OWLEntity> seeds = new HashSet<>();
+		List<String> prefixes = new ArrayList<>();
+
+		for (String line : Files.readAllLines(seedFile.toPath(), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			if (line.startsWith("<") && line.endsWith(">")) {
+				line = line.substring(1, line.length() - 1);
+			}
+			if (line.endsWith("*")) {
+				prefixes.add(line.substring(0, line.length() - 1));
+				continue;
+			}
+			Set<OWLEntity> named = ontology.getEntitiesInSignature(IRI.create(line), INCLUDED);
+			if (named.isEmpty()) {
+				System.err.println("Seed not in ontology: " + line);
+			}
+			seeds.addAll(named);
+		}
+
+		if (!prefixes.isEmpty()) {
+			for (OWLEntity ent : ontology.getSignature(INCLUDED)) {
+				String iri = ent.getIRI().toString();
+				for (String prefix : prefixes) {
+					if (iri.startsWith(prefix)) {
+						seeds.add(ent);
+						break;
+					}
+				}
+			}
+		}
+		return seeds;
+	}
+
+	/**
+	 * Replaces an ontology in its manager with its module for the given
+	 * seeds. The module keeps the source's ID, document format, annotations
+	 * and imports declarations, so it renders with the same header.
+	 *
+	 * @param manager
+	 *        the manager holding the ontology
+	 * @param ontology
+	 *        the ontology to slice
+	 * @param seeds
+	 *        the seed signature
+	 * @param type
+	 *        the kind of locality module to extract
+	 * @return the module
+	 * @throws OWLOntologyCreationException
+	 *         if the module ontology cannot be created
+	 */
+	static OWLOntology extract(OWLOntologyManager manager, OWLOntology ontology,
+			Set<OWLEntity> seeds, ModuleType type) throws OWLOntologyCreationException {
+		SyntacticLocalityModuleExtractor extractor =
+				new SyntacticLocalityModuleExtractor(manager, ontology, type);
+		Set<OWLAxiom> module = extractor.extract(seeds);
+
+		OWLOntologyID id = ontology.getOntologyID();
+		OWLDocumentFormat format = manager.getOntologyFormat(ontology);
+		Set<OWLAnnotation> annotations = ontology.getAnnotations();
+		Set<OWLImportsDeclaration> imports = ontology.getImportsDeclarations();
+		int sourceAxioms = ontology.getAxiomCount();
+		manager.removeOntology(ontology);
+
+		OWLOntology slice = manager.createOntology(module);
+		if (!id.isAnonymous()) {
+			manager.applyChange(new SetOntologyID(slice, id));
+		}
+		if (format != null) {
+			manager.setOntologyFormat(slice, format);
+		}
+		List<OWLOntologyChange> changes = new ArrayList<>();
+		for (OWLAnnotation anno : annotations) {
+			changes.add(new AddOntologyAnnotation(slice, anno));
+		}
+		for (OWLImportsDeclaration decl : imports) {
+			changes.add(new AddImport(slice, decl));
+		}
+		if (!changes.isEmpty()) {
+			manager.applyChanges(changes);
+		}
+
+		System.err.println(type.name() + " module for " + seeds.size() + " seed entities: "
+				+ slice.getAxiomCount() + " of " + sourceAxioms + " axioms");
+		return slice;
+	}
+}
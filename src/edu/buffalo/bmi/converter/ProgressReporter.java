@@ -0,0 +1,222 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import edu.buffalo.bmi.csneps.ConversionProgress;
+import edu.buffalo.bmi.csneps.ConversionProgress.Phase;
+
+/**
+ * Periodically reports a {@link ConversionProgress} to stderr and/or a
+ * status file from a background thread, so the converting thread never
+ * waits on the report.
+ */
+class ProgressReporter {
+
+	private final ConversionProgress progress;
+	private final PrintStream out;
+	private final Path statusFile;
+	private final ScheduledExecutorService timer;
+
+	private long lastNanos;
+	private long lastAxioms;
+	private long lastBytes;
+
+	/**
+	 * @param progress
+	 *        the progress to report
+	 * @param out
+	 *        stream to report to, or null
+	 * @param statusFile
+	 *        file to keep the latest report in, or null
+	 */
+	ProgressReporter(ConversionProgress progress, PrintStream out, String statusFile) {
+		this.progress = progress;
+		this.out = out;
+		this.statusFile = statusFile == null ? null : Paths.get(statusFile);
+		this.lastNanos = progress.getStartNanos();
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "conversion-progress");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * @param intervalSeconds
+	 *        seconds between reports
+	 */
+	void start(long intervalSeconds) {
+		timer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops reporting and writes one final report.
+	 */
+	void stop() {
+		timer.shutdown();
+		try {
+			timer.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		progress.setPhase(Phase.DONE);
+		report();
+	}
+
+	private synchronized void report() {
+		String line = format(System.nanoTime());
+		if (out != null) {
+			out.println(line);
+		}
+		if (statusFile != null) {
+			writeStatus(line);
+		}
+	}
+
+	private String format(long now) {
+		Phase phase = progress.getPhase();
+		long entities = progress.getEntitiesDone();
+		long entitiesTotal = progress.getEntitiesTotal();
+		long axioms = progress.getAxiomsDone();
+		long axiomsTotal = progress.getAxiomsTotal();
+		long rendered = progress.getCharsRendered();
+		long units = progress.getUnitsDone();
+		long unitsTotal = progress.getUnitsTotal();
+		long lines = progress.getLinesWritten();
+		long linesTotal = progress.getLinesTotal();
+		long written = progress.getBytesWritten();
+
+		double interval = (now - lastNanos) / 1e9;
+		long axiomRate = interval > 0 ? (long) ((axioms - lastAxioms) / interval) : 0;
+		long byteRate = interval > 0 ? (long) ((written - lastBytes) / interval) : 0;
+		lastNanos = now;
+		lastAxioms = axioms;
+		lastBytes = written;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append('[').append(duration(now - progress.getStartNanos())).append("] ");
+		sb.append(phase);
+		if (phase == Phase.WORKERS) {
+			sb.append("  units ").append(units).append('/').append(unitsTotal);
+			long eta = unitsEta(now, units, unitsTotal);
+			if (eta >= 0) {
+				sb.append("  ETA ").append(duration(eta));
+			}
+			return sb.toString();
+		}
+		if (phase == Phase.WRITE || phase == Phase.DONE) {
+			// the entity and axiom counters stopped with rendering
+			if (unitsTotal > 0) {
+				sb.append("  units ").append(units).append('/').append(unitsTotal);
+			} else {
+				sb.append("  axioms ").append(axioms);
+			}
+			sb.append("  lines ").append(lines);
+			if (linesTotal >= 0) {
+				sb.append('/').append(linesTotal);
+			}
+		} else if (phase != Phase.LOAD) {
+			sb.append("  entities ").append(entities).append('/').append(entitiesTotal);
+			sb.append("  axioms ").append(axioms).append('/').append(axiomsTotal);
+			sb.append(" (").append(axiomRate).append("/s)");
+		}
+		if (phase != Phase.LOAD) {
+			if (unitsTotal == 0) {
+				// the workers' rendering is not counted here
+				sb.append("  rendered ").append(bytes(rendered));
+			}
+			sb.append("  written ").append(bytes(written));
+			if (phase == Phase.WRITE && byteRate > 0) {
+				sb.append(" (").append(bytes(byteRate)).append("/s)");
+			}
+			long eta = eta(phase, now, axioms, axiomsTotal, lines, linesTotal);
+			if (eta >= 0) {
+				sb.append("  ETA ").append(duration(eta));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Estimates the remaining time from the average axiom rate since
+	 * rendering started, or when writing from the average rate at which
+	 * rendered lines have been copied since writing started. Lines are
+	 * counted rather than bytes, as the output has the prelude and the
+	 * assert wrappers on top of the rendered text.
+	 */
+	private long eta(Phase phase, long now, long axioms, long axiomsTotal,
+			long lines, long linesTotal) {
+		if (phase == Phase.DONE) {
+			return -1;
+		}
+		if (phase == Phase.WRITE) {
+			long elapsed = now - progress.getPhaseStartNanos();
+			if (linesTotal < 0 || lines == 0 || elapsed <= 0) {
+				return -1;
+			}
+			return (long) (Math.max(0, linesTotal - lines) * (elapsed / (double) lines));
+		}
+		long renderStart = progress.getRenderStartNanos();
+		long elapsed = now - renderStart;
+		if (renderStart < 0 || axioms == 0 || elapsed <= 0) {
+			return -1;
+		}
+		return (long) (Math.max(0, axiomsTotal - axioms) * (elapsed / (double) axioms));
+	}
+
+	/**
+	 * Estimates the remaining time from the average rate at which the
+	 * workers have finished units since they started, leaving out units
+	 * kept from an earlier run.
+	 */
+	private long unitsEta(long now, long units, long unitsTotal) {
+		long rendered = units - progress.getUnitsKept();
+		long elapsed = now - progress.getPhaseStartNanos();
+		if (rendered <= 0 || elapsed <= 0) {
+			return -1;
+		}
+		return (long) (Math.max(0, unitsTotal - units) * (elapsed / (double) rendered));
+	}
+
+	private void writeStatus(String line) {
+		Path tmp = statusFile.resolveSibling(statusFile.getFileName() + ".tmp");
+		try {
+			Files.write(tmp, (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, statusFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// A missed status update is not worth failing the conversion for.
+		}
+	}
+
+	private static String duration(long nanos) {
+		long s = TimeUnit.NANOSECONDS.toSeconds(nanos);
+		return String.format("%02d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+	}
+
+	private static String bytes(long n) {
+		if (n < 1024) {
+			return n + " B";
+		}
+		int exp = (int) (Math.log(n) / Math.log(1024));
+		return String.format("%.1f %sB", n / Math.pow(1024, exp), "KMGTPE".charAt(exp - 1));
+	}
+}
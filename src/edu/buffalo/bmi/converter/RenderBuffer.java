@@ -0,0 +1,140 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.io.CharSource;
+
+import edu.buffalo.bmi.csneps.MemoryBudget;
+
+/**
+ * Holds the rendered CSNePS terms between rendering and writing the output
+ * file. The terms are kept in memory until the memory budget is exceeded,
+ * at which point they are moved to a temporary file and further writes go
+ * straight to that file.
+ */
+class RenderBuffer extends Writer {
+
+	private static final int CHECK_INTERVAL = 1 << 16;
+
+	private final MemoryBudget budget;
+	private StringBuilder buffer = new StringBuilder();
+	private Writer spill;
+	private File spillFile;
+	private int sinceCheck;
+
+	/**
+	 * @param budget
+	 *        the budget to watch, or null to always buffer in memory
+	 */
+	RenderBuffer(MemoryBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return true if the buffer has moved to a temporary file
+	 */
+	boolean isSpilled() {
+		return spill != null;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		if (spill != null) {
+			spill.write(cbuf, off, len);
+			return;
+		}
+		buffer.append(cbuf, off, len);
+		checkBudget(len);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		if (spill != null) {
+			spill.write(str, off, len);
+			return;
+		}
+		buffer.append(str, off, off + len);
+		checkBudget(len);
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (spill != null) {
+			spill.write(c);
+			return;
+		}
+		buffer.append((char) c);
+		checkBudget(1);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (spill != null) {
+			spill.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (spill != null) {
+			spill.close();
+		}
+	}
+
+	/**
+	 * Opens the buffered text for reading. No more writes may follow.
+	 *
+	 * @return a reader over everything written
+	 * @throws IOException
+	 *         if the spill file cannot be read
+	 */
+	Reader openReader() throws IOException {
+		if (spill == null) {
+			return CharSource.wrap(buffer).openStream();
+		}
+		spill.close();
+		return new InputStreamReader(new FileInputStream(spillFile),
+				StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Drops the buffered text and removes any spill file.
+	 */
+	void dispose() {
+		buffer = null;
+		if (spillFile != null) {
+			spillFile.delete();
+		}
+	}
+
+	private void checkBudget(int len) throws IOException {
+		if (budget == null) {
+			return;
+		}
+		sinceCheck += len;
+		if (sinceCheck >= CHECK_INTERVAL) {
+			sinceCheck = 0;
+			if (budget.isExceeded()) {
+				spill();
+			}
+		}
+	}
+
+	private void spill() throws IOException {
+		spillFile = File.createTempFile("csneps-render", ".tmp");
+		spillFile.deleteOnExit();
+		spill = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(spillFile), StandardCharsets.UTF_8), 1 << 16);
+		spill.append(buffer);
+		buffer = new StringBuilder();
+	}
+}
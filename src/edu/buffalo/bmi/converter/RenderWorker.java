@@ -0,0 +1,111 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.semanticweb.owlapi.io.OWLRendererException;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import edu.buffalo.bmi.csneps.OWLCSNePSSyntaxRenderer;
+import edu.buffalo.bmi.csneps.RenderUnit;
+
+/**
+ * Renders units from a conversion's work queue until every unit is done.
+ *
+ * The worker loads and prepares the ontology as the conversion's options
+ * say, once, and then renders one unit after another. While it works on a
+ * unit it touches its claim at a quarter of the lease, so that the
+ * coordinator can tell it is still alive. A worker with nothing to claim
+ * waits for the other workers' units to be done, in case one is handed
+ * back.
+ */
+class RenderWorker {
+
+	private static final long IDLE_MILLIS = 1000;
+
+	private final WorkQueue queue;
+	private final String id;
+	private volatile int current = -1;
+
+	/**
+	 * @param queue
+	 *        the work queue
+	 * @param id
+	 *        the worker's name, or null for one made from its process
+	 */
+	RenderWorker(WorkQueue queue, String id) {
+		this.queue = queue;
+		this.id = (id != null ? id : ManagementFactory.getRuntimeMXBean().getName())
+				.replaceAll("[^A-Za-z0-9._@-]", "_");
+	}
+
+	/**
+	 * @param spool
+	 *        the spool directory
+	 * @param id
+	 *        the worker's name, or null for one made from its process
+	 */
+	static void run(File spool, String id) {
+		try {
+			new RenderWorker(WorkQueue.open(spool), id).work();
+		} catch (IOException | OWLRendererException | InterruptedException
+				| RuntimeException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private void work() throws IOException, OWLRendererException, InterruptedException {
+		ConverterOptions opts = ConverterOptions.parse(queue.getArgs().toArray(new String[0]));
+		OWLOntology ontology = Converter.load(opts, new File(opts.infilename));
+		if (ontology == null) {
+			throw new IOException("Could not load " + opts.infilename);
+		}
+		Converter.prepare(opts, ontology);
+		OWLCSNePSSyntaxRenderer renderer = new OWLCSNePSSyntaxRenderer();
+		Converter.configure(renderer, opts, ontology);
+
+		Timer heartbeat = new Timer("claim heartbeat", true);
+		long period = queue.getLeaseMillis() / 4;
+		heartbeat.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				int k = current;
+				if (k >= 0) {
+					queue.touch(k, id);
+				}
+			}
+		}, period, period);
+
+		int rendered = 0;
+		while (true) {
+			int k = queue.claim(id);
+			if (k < 0) {
+				if (queue.isFinished()) {
+					break;
+				}
+				Thread.sleep(IDLE_MILLIS);
+				continue;
+			}
+			current = k;
+			RenderUnit unit = queue.getUnit(k);
+			long start = System.nanoTime();
+			renderer.setRenderUnit(unit);
+			long lines;
+			try (LineCountingWriter out = new LineCountingWriter(queue.openOutput(k, id))) {
+				renderer.render(ontology, out);
+				lines = out.getLines();
+			}
+			queue.publish(k, id, unit, lines);
+			current = -1;
+			rendered++;
+			System.err.println("Unit " + k + " (" + unit + "): "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+		}
+		heartbeat.cancel();
+		System.err.println("Worker " + id + " rendered " + rendered + " units");
+	}
+}
@@ -0,0 +1,313 @@
+package edu.buffalo.bmi.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+
+/**
+ * Removes told SubClassOf axioms between named classes that are implied by
+ * the rest of the told hierarchy, e.g. A &#8849; C when A &#8849; B and
+ * B &#8849; C are also told.
+ *
+ * Classes on a subclass cycle are collapsed into one node first, and edges
+ * out of a cycle are left alone, so the reduction is sound for any told
+ * hierarchy. Annotated axioms are never removed, though they still count
+ * towards what is implied. Only classes with more than one told superclass
+ * need any work: each such class walks the ancestors of its superclasses
+ * once, so on ontology hierarchies the cost is close to linear.
+ */
+class SubClassReducer {
+
+	private final OWLOntology ontology;
+
+	private final Map<OWLClass, Integer> index = new HashMap<>();
+	private final List<OWLSubClassOfAxiom> edges = new ArrayList<>();
+	private int[] edgeSub;
+	private int[] edgeSuper;
+	private boolean[] edgeAnnotated;
+
+	/** CSR lists of each class's told superclasses, as edge numbers. */
+	private int[] parentStart;
+	private int[] parentEdges;
+
+	private int[] comp;
+	private int[] compSize;
+	private int comps;
+
+	/** CSR lists of each component's parent components. */
+	private int[] compParentStart;
+	private int[] compParents;
+
+	/**
+	 * @param ontology
+	 *        the ontology to reduce
+	 */
+	SubClassReducer(OWLOntology ontology) {
+		this.ontology = ontology;
+	}
+
+	/**
+	 * Removes the redundant axioms from the ontology.
+	 *
+	 * @return the number of axioms removed
+	 */
+	int reduce() {
+		buildGraph();
+		findComponents();
+		buildComponentGraph();
+		List<OWLAxiom> redundant = findRedundant();
+		if (!redundant.isEmpty()) {
+			ontology.getOWLOntologyManager().removeAxioms(ontology,
+					new HashSet<>(redundant));
+		}
+		return redundant.size();
+	}
+
+	/**
+	 * @return the number of distinct told named-class SubClassOf edges
+	 *         considered
+	 */
+	int getEdgeCount() {
+		return edges.size();
+	}
+
+	private int node(OWLClass cls) {
+		Integer i = index.get(cls);
+		if (i == null) {
+			i = index.size();
+			index.put(cls, i);
+		}
+		return i;
+	}
+
+	private void buildGraph() {
+		List<Integer> subs = new ArrayList<>();
+		List<Integer> supers = new ArrayList<>();
+		List<Boolean> annotated = new ArrayList<>();
+		// the same edge may be told both with and without annotations
+		Map<Long, Integer> pairs = new HashMap<>();
+		for (OWLSubClassOfAxiom ax : ontology.getAxioms(AxiomType.SUBCLASS_OF)) {
+			if (ax.getSubClass().isAnonymous() || ax.getSuperClass().isAnonymous()
+					|| ax.getSubClass().equals(ax.getSuperClass())) {
+				continue;
+			}
+			int sub = node(ax.getSubClass().asOWLClass());
+			int sup = node(ax.getSuperClass().asOWLClass());
+			Integer e = pairs.get(((long) sub << 32) | sup);
+			if (e != null) {
+				annotated.set(e, true);
+				continue;
+			}
+			pairs.put(((long) sub << 32) | sup, edges.size());
+			edges.add(ax);
+			subs.add(sub);
+			supers.add(sup);
+			annotated.add(ax.isAnnotated());
+		}
+
+		int n = index.size();
+		int m = edges.size();
+		edgeSub = new int[m];
+		edgeSuper = new int[m];
+		edgeAnnotated = new boolean[m];
+		parentStart = new int[n + 1];
+		for (int e = 0; e < m; e++) {
+			edgeSub[e] = subs.get(e);
+			edgeSuper[e] = supers.get(e);
+			edgeAnnotated[e] = annotated.get(e);
+			parentStart[edgeSub[e] + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			parentStart[i + 1] += parentStart[i];
+		}
+		parentEdges = new int[m];
+		int[] fill = Arrays.copyOf(parentStart, n);
+		for (int e = 0; e < m; e++) {
+			parentEdges[fill[edgeSub[e]]++] = e;
+		}
+	}
+
+	/**
+	 * Tarjan's algorithm, iteratively, over the superclass edges.
+	 */
+	private void findComponents() {
+		int n = index.size();
+		comp = new int[n];
+		Arrays.fill(comp, -1);
+		int[] low = new int[n];
+		int[] order = new int[n];
+		Arrays.fill(order, -1);
+		int[] stack = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] callNode = new int[n];
+		int[] callEdge = new int[n];
+		int sp = 0;
+		int counter = 0;
+		int[] sizes = new int[n];
+
+		for (int root = 0; root < n; root++) {
+			if (order[root] >= 0) {
+				continue;
+			}
+			int depth = 0;
+			callNode[0] = root;
+			callEdge[0] = parentStart[root];
+			order[root] = low[root] = counter++;
+			stack[sp++] = root;
+			onStack[root] = true;
+
+			while (depth >= 0) {
+				int v = callNode[depth];
+				if (callEdge[depth] < parentStart[v + 1]) {
+					int w = edgeSuper[parentEdges[callEdge[depth]++]];
+					if (order[w] < 0) {
+						order[w] = low[w] = counter++;
+						stack[sp++] = w;
+						onStack[w] = true;
+						depth++;
+						callNode[depth] = w;
+						callEdge[depth] = parentStart[w];
+					} else if (onStack[w]) {
+						low[v] = Math.min(low[v], order[w]);
+					}
+					continue;
+				}
+				if (low[v] == order[v]) {
+					int w;
+					do {
+						w = stack[--sp];
+						onStack[w] = false;
+						comp[w] = comps;
+						sizes[comps]++;
+					} while (w != v);
+					comps++;
+				}
+				depth--;
+				if (depth >= 0) {
+					int u = callNode[depth];
+					low[u] = Math.min(low[u], low[v]);
+				}
+			}
+		}
+		compSize = Arrays.copyOf(sizes, comps);
+	}
+
+	private void buildComponentGraph() {
+		int n = index.size();
+		int[] seen = new int[comps];
+		Arrays.fill(seen, -1);
+		compParentStart = new int[comps + 1];
+		List<int[]> pairs = new ArrayList<>();
+		// group nodes by component so that each component's parents can
+		// be deduplicated in one pass
+		int[] byComp = new int[n];
+		int[] compStart = new int[comps + 1];
+		for (int v = 0; v < n; v++) {
+			compStart[comp[v] + 1]++;
+		}
+		for (int c = 0; c < comps; c++) {
+			compStart[c + 1] += compStart[c];
+		}
+		int[] fill = Arrays.copyOf(compStart, comps);
+		for (int v = 0; v < n; v++) {
+			byComp[fill[comp[v]]++] = v;
+		}
+		for (int c = 0; c < comps; c++) {
+			for (int k = compStart[c]; k < compStart[c + 1]; k++) {
+				int v = byComp[k];
+				for (int j = parentStart[v]; j < parentStart[v + 1]; j++) {
+					int pc = comp[edgeSuper[parentEdges[j]]];
+					if (pc != c && seen[pc] != c) {
+						seen[pc] = c;
+						pairs.add(new int[] { c, pc });
+					}
+				}
+			}
+			compParentStart[c + 1] = pairs.size();
+		}
+		compParents = new int[pairs.size()];
+		for (int i = 0; i < compParents.length; i++) {
+			compParents[i] = pairs.get(i)[1];
+		}
+	}
+
+	private List<OWLAxiom> findRedundant() {
+		List<OWLAxiom> redundant = new ArrayList<>();
+		int n = index.size();
+		int[] mark = new int[comps];
+		Arrays.fill(mark, -1);
+		int[] kept = new int[comps];
+		Arrays.fill(kept, -1);
+		int[] stack = new int[Math.max(1, comps)];
+
+		for (int a = 0; a < n; a++) {
+			int first = parentStart[a];
+			int last = parentStart[a + 1];
+			if (last - first < 2 || compSize[comp[a]] > 1) {
+				continue;
+			}
+
+			// mark every component reachable in one or more steps from a
+			// component holding one of a's superclasses
+			int sp = 0;
+			for (int j = first; j < last; j++) {
+				int c = comp[edgeSuper[parentEdges[j]]];
+				for (int k = compParentStart[c]; k < compParentStart[c + 1]; k++) {
+					int pc = compParents[k];
+					if (mark[pc] != a) {
+						mark[pc] = a;
+						stack[sp++] = pc;
+					}
+				}
+			}
+			while (sp > 0) {
+				int c = stack[--sp];
+				for (int k = compParentStart[c]; k < compParentStart[c + 1]; k++) {
+					int pc = compParents[k];
+					if (mark[pc] != a) {
+						mark[pc] = a;
+						stack[sp++] = pc;
+					}
+				}
+			}
+
+			// an edge is redundant if its target is reachable another way,
+			// or if another edge already reaches the same cycle; annotated
+			// edges are kept in preference to plain ones
+			for (int j = first; j < last; j++) {
+				int e = parentEdges[j];
+				int c = comp[edgeSuper[e]];
+				if (mark[c] != a && isAnnotated(e) && (kept[c] < first || !isAnnotated(parentEdges[kept[c]]))) {
+					kept[c] = j;
+				}
+			}
+			for (int j = first; j < last; j++) {
+				int e = parentEdges[j];
+				int c = comp[edgeSuper[e]];
+				if (mark[c] != a && kept[c] < first) {
+					kept[c] = j;
+				}
+				if (isAnnotated(e)) {
+					continue;
+				}
+				if (mark[c] == a || kept[c] != j) {
+					redundant.add(edges.get(e));
+				}
+			}
+		}
+		return redundant;
+	}
+
+	private boolean isAnnotated(int edge) {
+		return edgeAnnotated[edge];
+	}
+}
@@ -0,0 +1,470 @@
+package edu.buffalo.bmi.converter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import edu.buffalo.bmi.csneps.ConversionProgress.Phase;
+import edu.buffalo.bmi.csneps.RenderCheckpoint;
+import edu.buffalo.bmi.csneps.RenderUnit;
+
+/**
+ * The work units of a conversion split between worker processes, kept as
+ * files in a spool directory that the coordinator and the workers share,
+ * if need be over a network file system:
+ *
+ * <pre>
+ * job.properties     the input, the options and the unit boundaries
+ * todo/N             unit N, waiting for a worker
+ * claimed/N@ID       unit N, being rendered by worker ID, which touches the
+ *                    file every so often while it works
+ * done/N.sneps       the text of rendered unit N, in UTF-8
+ * done/N.arb         where the arbitrary numbers are in that text, and how
+ *                    many lines it has; written last, so unit N is done
+ *                    once it exists
+ * logs/              the output of the workers the coordinator starts
+ * </pre>
+ *
+ * Every step is a file creation or a rename, so a worker that dies leaves
+ * at most a claim, which is handed back to todo. A unit can be rendered
+ * twice, if a worker given up for dead finishes after all; a unit renders
+ * the same every time, so either copy will do.
+ */
+class WorkQueue {
+
+	private static final String JOB = "job.properties";
+
+	private final File dir;
+	private final File todo;
+	private final File claimed;
+	private final File done;
+	private final File logs;
+	private final Properties job;
+	private final int size;
+
+	private WorkQueue(File dir, Properties job) {
+		this.dir = dir;
+		this.job = job;
+		todo = new File(dir, "todo");
+		claimed = new File(dir, "claimed");
+		done = new File(dir, "done");
+		logs = new File(dir, "logs");
+		size = Integer.parseInt(job.getProperty("units"));
+	}
+
+	/**
+	 * Sets up a new queue, replacing whatever the directory held.
+	 *
+	 * @param dir
+	 *        the spool directory
+	 * @param input
+	 *        the ontology file
+	 * @param settings
+	 *        the options that affect what is rendered, and the number of
+	 *        units
+	 * @param args
+	 *        the arguments for the workers
+	 * @param units
+	 *        the units, in output order
+	 * @param leaseSeconds
+	 *        how long a worker may go without touching its claim
+	 * @return the queue
+	 * @throws IOException
+	 *         if the directory cannot be written
+	 */
+	static WorkQueue create(File dir, File input, String settings, List<String> args,
+			List<RenderUnit> units, long leaseSeconds) throws IOException {
+		deleteTree(dir);
+		Properties job = new Properties();
+		job.setProperty("input.length", Long.toString(input.length()));
+		job.setProperty("input.modified", Long.toString(input.lastModified()));
+		job.setProperty("settings", settings);
+		job.setProperty("lease", Long.toString(leaseSeconds));
+		job.setProperty("args", Integer.toString(args.size()));
+		for (int i = 0; i < args.size(); i++) {
+			job.setProperty("arg." + i, args.get(i));
+		}
+		job.setProperty("units", Integer.toString(units.size()));
+		for (int k = 0; k < units.size(); k++) {
+			job.setProperty("unit." + k + ".start", format(units.get(k).getStart()));
+			job.setProperty("unit." + k + ".end", format(units.get(k).getEnd()));
+		}
+		WorkQueue queue = new WorkQueue(dir, job);
+		for (File d : Arrays.asList(queue.todo, queue.claimed, queue.done, queue.logs)) {
+			Files.createDirectories(d.toPath());
+		}
+		Path tmp = new File(dir, JOB + ".tmp").toPath();
+		try (OutputStream out = Files.newOutputStream(tmp)) {
+			job.store(out, "CSNePS conversion work queue");
+		}
+		Files.move(tmp, new File(dir, JOB).toPath(), StandardCopyOption.ATOMIC_MOVE);
+		for (int k = 0; k < units.size(); k++) {
+			new File(queue.todo, name(k)).createNewFile();
+		}
+		return queue;
+	}
+
+	/**
+	 * @param dir
+	 *        the spool directory
+	 * @return the queue it holds
+	 * @throws IOException
+	 *         if it holds none
+	 */
+	static WorkQueue open(File dir) throws IOException {
+		Properties job = new Properties();
+		try (InputStream in = Files.newInputStream(new File(dir, JOB).toPath())) {
+			job.load(in);
+		}
+		try {
+			return new WorkQueue(dir, job);
+		} catch (NumberFormatException e) {
+			throw new IOException("Not a valid work queue: " + dir, e);
+		}
+	}
+
+	/**
+	 * @return true if the queue is for this input and these settings, so
+	 *         its finished units can be kept
+	 */
+	boolean matches(File input, String settings) {
+		return Long.toString(input.length()).equals(job.getProperty("input.length"))
+				&& Long.toString(input.lastModified()).equals(job.getProperty("input.modified"))
+				&& settings.equals(job.getProperty("settings"));
+	}
+
+	/**
+	 * Hands every unit that is not done back to todo, for a coordinator
+	 * that takes over the queue of an earlier one.
+	 */
+	void requeue() throws IOException {
+		for (File claim : list(claimed)) {
+			claim.delete();
+		}
+		for (int k = 0; k < size; k++) {
+			if (!isDone(k)) {
+				new File(todo, name(k)).createNewFile();
+			}
+		}
+	}
+
+	List<String> getArgs() {
+		List<String> args = new ArrayList<>();
+		int n = Integer.parseInt(job.getProperty("args"));
+		for (int i = 0; i < n; i++) {
+			args.add(job.getProperty("arg." + i));
+		}
+		return args;
+	}
+
+	long getLeaseMillis() {
+		return Long.parseLong(job.getProperty("lease")) * 1000;
+	}
+
+	int size() {
+		return size;
+	}
+
+	File getDir() {
+		return dir;
+	}
+
+	File getLogDir() {
+		return logs;
+	}
+
+	/**
+	 * @return a new, not yet rendered copy of unit k
+	 */
+	RenderUnit getUnit(int k) {
+		return new RenderUnit(parse(job.getProperty("unit." + k + ".start")),
+				parse(job.getProperty("unit." + k + ".end")));
+	}
+
+	/**
+	 * Takes the first unit waiting in todo.
+	 *
+	 * @param worker
+	 *        the worker taking it
+	 * @return the unit's number, or -1 if none is waiting
+	 */
+	int claim(String worker) {
+		for (File entry : list(todo)) {
+			int k = Integer.parseInt(entry.getName());
+			File claim = new File(claimed, entry.getName() + "@" + worker);
+			try {
+				Files.move(entry.toPath(), claim.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// another worker got there first
+				continue;
+			}
+			if (isDone(k)) {
+				claim.delete();
+				continue;
+			}
+			// the lease runs from now, not from when the entry was made
+			claim.setLastModified(System.currentTimeMillis());
+			return k;
+		}
+		return -1;
+	}
+
+	/**
+	 * Renews a worker's claim on a unit.
+	 */
+	void touch(int k, String worker) {
+		new File(claimed, name(k) + "@" + worker).setLastModified(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return a writer for the text of unit k, which becomes the unit's
+	 *         text only when it is published
+	 */
+	Writer openOutput(int k, String worker) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				new File(done, name(k) + ".sneps." + worker + ".tmp")), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Marks unit k done, once its text is written.
+	 *
+	 * @param unit
+	 *        the unit as rendered
+	 * @param lines
+	 *        the number of lines in its text
+	 */
+	void publish(int k, String worker, RenderUnit unit, long lines) throws IOException {
+		Files.move(new File(done, name(k) + ".sneps." + worker + ".tmp").toPath(),
+				new File(done, name(k) + ".sneps").toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		File tmp = new File(done, name(k) + ".arb." + worker + ".tmp");
+		long[] offsets = unit.getArbitraryOffsets();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)))) {
+			out.writeInt(unit.getIdsUsed());
+			out.writeInt(offsets.length);
+			for (long offset : offsets) {
+				out.writeLong(offset);
+			}
+			out.writeLong(lines);
+		}
+		Files.move(tmp.toPath(), new File(done, name(k) + ".arb").toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		new File(claimed, name(k) + "@" + worker).delete();
+	}
+
+	boolean isDone(int k) {
+		return new File(done, name(k) + ".arb").exists();
+	}
+
+	int countDone() {
+		int n = 0;
+		for (int k = 0; k < size; k++) {
+			if (isDone(k)) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	boolean isFinished() {
+		return countDone() == size;
+	}
+
+	/**
+	 * Hands back to todo the units claimed by workers that have stopped or
+	 * have not touched their claim within the lease.
+	 *
+	 * @param stopped
+	 *        the workers known to have stopped
+	 * @return the number of units handed back
+	 */
+	int releaseClaims(Set<String> stopped) {
+		long expired = System.currentTimeMillis() - getLeaseMillis();
+		int released = 0;
+		for (File claim : list(claimed)) {
+			String name = claim.getName();
+			int at = name.indexOf('@');
+			if (at < 0 || !stopped.contains(name.substring(at + 1))
+					&& claim.lastModified() >= expired) {
+				continue;
+			}
+			try {
+				Files.move(claim.toPath(), new File(todo, name.substring(0, at)).toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+				released++;
+			} catch (IOException e) {
+				// the worker finished it meanwhile
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * Opens the rendered units for reading, in order, with the arbitraries
+	 * of each renumbered to follow on from those before it. Each unit's
+	 * files are opened only when the units before it have been read, so
+	 * the merged text is never held in memory.
+	 *
+	 * @return a reader over the merged text
+	 */
+	Reader openMerged() {
+		return new MergedReader();
+	}
+
+	/**
+	 * @return the number of lines in the rendered units, or -1 if a unit
+	 *         was rendered by an earlier version that did not record it
+	 */
+	long countLines() throws IOException {
+		long lines = 0;
+		for (int k = 0; k < size; k++) {
+			long n = readDone(k).lines;
+			if (n < 0) {
+				return -1;
+			}
+			lines += n;
+		}
+		return lines;
+	}
+
+	/**
+	 * Reads the arbitrary numbers and line count of a done unit.
+	 */
+	private DoneUnit readDone(int k) throws IOException {
+		DoneUnit unit = new DoneUnit();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(new File(done, name(k) + ".arb"))))) {
+			unit.idsUsed = in.readInt();
+			unit.offsets = new long[in.readInt()];
+			for (int i = 0; i < unit.offsets.length; i++) {
+				unit.offsets[i] = in.readLong();
+			}
+			try {
+				unit.lines = in.readLong();
+			} catch (EOFException e) {
+				unit.lines = -1;
+			}
+		}
+		return unit;
+	}
+
+	/**
+	 * Removes the spool directory and everything in it.
+	 */
+	void delete() {
+		deleteTree(dir);
+	}
+
+	private static void deleteTree(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteTree(child);
+			}
+		}
+		f.delete();
+	}
+
+	/**
+	 * @return the files in a directory, in name order
+	 */
+	private static List<File> list(File d) {
+		File[] files = d.listFiles();
+		if (files == null) {
+			return new ArrayList<>();
+		}
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+
+	private static String name(int k) {
+		return String.format("%05d", k);
+	}
+
+	private static String format(RenderCheckpoint point) {
+		return point.getPhase().name() + " " + point.getPosition() + " "
+				+ point.getSignatureSize();
+	}
+
+	private static RenderCheckpoint parse(String s) {
+		String[] parts = s.split(" ");
+		return new RenderCheckpoint(Phase.valueOf(parts[0]), Integer.parseInt(parts[1]), 0,
+				Integer.parseInt(parts[2]));
+	}
+
+	/**
+	 * What the .arb file of a done unit holds.
+	 */
+	private static class DoneUnit {
+		int idsUsed;
+		long[] offsets;
+		long lines;
+	}
+
+	/**
+	 * Reads the units one after another.
+	 */
+	private class MergedReader extends Reader {
+
+		private int next;
+		private int base;
+		private Reader current;
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			while (true) {
+				if (current == null) {
+					if (next == size) {
+						return -1;
+					}
+					open(next++);
+				}
+				int n = current.read(cbuf, off, len);
+				if (n >= 0) {
+					return n;
+				}
+				current.close();
+				current = null;
+			}
+		}
+
+		private void open(int k) throws IOException {
+			DoneUnit unit = readDone(k);
+			current = RenderUnit.renumbering(new InputStreamReader(new FileInputStream(
+					new File(done, name(k) + ".sneps")), StandardCharsets.UTF_8), unit.offsets,
+					base);
+			base += unit.idsUsed;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (current != null) {
+				current.close();
+				current = null;
+			}
+		}
+	}
+}
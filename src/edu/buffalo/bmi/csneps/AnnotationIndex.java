@@ -0,0 +1,118 @@
+/**
+ * Looks up the annotation terms of single subjects in an annotation file
+ * written through {@link AnnotationOutput}, without reading the rest of it.
+ *
+ * Only the index is held in memory. Lookups read the subject's byte range
+ * directly from the file and may be made from several threads at once.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.IRI;
+
+public class AnnotationIndex implements Closeable {
+
+    private final Map<String, long[]> ranges = new HashMap<>();
+    private final FileChannel channel;
+
+    /**
+     * @param file
+     *        the annotation file
+     * @param indexFile
+     *        its index
+     * @throws IOException
+     *         if either file cannot be read, or the index is malformed
+     */
+    public AnnotationIndex(@Nonnull File file, @Nonnull File indexFile)
+            throws IOException {
+        for (String line : Files.readAllLines(indexFile.toPath(),
+                StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 3) {
+                throw new IOException("Malformed index line: " + line);
+            }
+            try {
+                ranges.put(fields[0], new long[] { Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]) });
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed index line: " + line, e);
+            }
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the IRIs and node IDs that have annotations
+     */
+    @Nonnull
+    public Set<String> getSubjects() {
+        return Collections.unmodifiableSet(ranges.keySet());
+    }
+
+    /**
+     * @param subject
+     *        the annotated IRI
+     * @return its annotation terms, one per element; empty if it has none
+     * @throws IOException
+     *         if the annotation file cannot be read
+     */
+    @Nonnull
+    public List<String> getAnnotations(@Nonnull IRI subject) throws IOException {
+        return getAnnotations(subject.toString());
+    }
+
+    /**
+     * @param subject
+     *        the annotated IRI, or node ID of an anonymous individual
+     * @return its annotation terms, one per element; empty if it has none
+     * @throws IOException
+     *         if the annotation file cannot be read
+     */
+    @Nonnull
+    public List<String> getAnnotations(@Nonnull String subject)
+            throws IOException {
+        long[] range = ranges.get(subject);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) range[1]);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, range[0] + buf.position()) < 0) {
+                throw new IOException("Annotation file is shorter than its index");
+            }
+        }
+        List<String> terms = new ArrayList<>();
+        for (String term : new String(buf.array(), StandardCharsets.UTF_8)
+                .split("\n")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
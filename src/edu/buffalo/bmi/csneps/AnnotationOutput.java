@@ -0,0 +1,182 @@
+/**
+ * A separate destination for annotation assertions.
+ *
+ * Annotation terms are written as UTF-8, one per line, and grouped by
+ * subject. For each subject the index file gets a line of the form
+ * {@code subject<TAB>offset<TAB>length}, giving the byte range of that
+ * subject's terms in the annotation file, so that {@link AnnotationIndex}
+ * can read back the annotations of a single entity.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+
+public class AnnotationOutput extends Writer {
+
+    private final FileChannel outChannel;
+    private final FileChannel indexChannel;
+    private final Writer out;
+    private final Writer index;
+    private long offset;
+    private long indexOffset;
+    private long subjectStart;
+    private String subject;
+
+    /**
+     * @param file
+     *        the file to write annotation terms to
+     * @param indexFile
+     *        the file to write the subject index to
+     * @throws IOException
+     *         if either file cannot be created
+     */
+    public AnnotationOutput(@Nonnull File file, @Nonnull File indexFile)
+            throws IOException {
+        this(file, indexFile, 0, 0);
+    }
+
+    /**
+     * Reopens the files of an earlier run, discarding anything past the
+     * given lengths, and carries on after them.
+     *
+     * @param file
+     *        the file to write annotation terms to
+     * @param indexFile
+     *        the file to write the subject index to
+     * @param offset
+     *        the length of the annotation file to keep
+     * @param indexOffset
+     *        the length of the index file to keep
+     * @throws IOException
+     *         if either file cannot be opened
+     */
+    public AnnotationOutput(@Nonnull File file, @Nonnull File indexFile,
+            long offset, long indexOffset) throws IOException {
+        outChannel = open(file, offset);
+        indexChannel = open(indexFile, indexOffset);
+        out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(outChannel), StandardCharsets.UTF_8));
+        index = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(indexChannel), StandardCharsets.UTF_8));
+        this.offset = offset;
+        this.indexOffset = indexOffset;
+    }
+
+    private static FileChannel open(File file, long length) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(length);
+        channel.position(length);
+        return channel;
+    }
+
+    /**
+     * @return the number of bytes of annotation terms written so far
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes of index written so far
+     */
+    public long getIndexOffset() {
+        return indexOffset;
+    }
+
+    /**
+     * Flushes both files and forces them to the storage device.
+     *
+     * @throws IOException
+     *         if either file cannot be written
+     */
+    public void sync() throws IOException {
+        flush();
+        outChannel.force(false);
+        indexChannel.force(false);
+    }
+
+    /**
+     * Starts the terms for one subject.
+     *
+     * @param key
+     *        the subject's IRI, or node ID for an anonymous individual
+     */
+    public void startSubject(@Nonnull String key) {
+        subject = key;
+        subjectStart = offset;
+    }
+
+    /**
+     * Ends the terms for the current subject and indexes them.
+     *
+     * @throws IOException
+     *         if the index cannot be written
+     */
+    public void endSubject() throws IOException {
+        if (subject != null && offset > subjectStart) {
+            String entry = subject + '\t' + subjectStart + '\t'
+                    + (offset - subjectStart) + '\n';
+            index.write(entry);
+            indexOffset += utf8Length(entry);
+        }
+        subject = null;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        offset += utf8Length(CharBuffer.wrap(cbuf, off, len));
+        out.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str) throws IOException {
+        offset += utf8Length(str);
+        out.write(str);
+    }
+
+    private static long utf8Length(CharSequence s) {
+        long n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                // the pair encodes to four bytes
+                n += 4;
+            } else if (!Character.isLowSurrogate(c)) {
+                n += 3;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+        index.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Thread-safe entry point for rendering single axioms and entities as
+ * CSNePS terms, for applications that need a rendering at request time
+ * rather than a whole KB.
+ *
+ * Renderers are pooled: each call borrows one, resets it onto a reusable
+ * buffer and hands it back, so a call costs only the rendering itself. All
+ * renderers share one prefix manager, built once when the facade is
+ * created. The ontology must not be changed while the facade is in use.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.PrefixManager;
+
+import com.google.common.io.CharStreams;
+
+public class CSNePSFragmentRenderer {
+
+    private static final int MAX_RETAINED_CHARS = 1 << 16;
+
+    private final OWLOntology ont;
+    private final PrefixManager prefixManager;
+    private final BlockingQueue<PooledRenderer> pool;
+
+    /**
+     * @param ontology
+     *        the ontology the rendered objects come from
+     */
+    public CSNePSFragmentRenderer(@Nonnull OWLOntology ontology) {
+        this(ontology, CSNePSSyntaxRenderer.createPrefixManager(ontology),
+                2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param ontology
+     *        the ontology the rendered objects come from
+     * @param prefixManager
+     *        the prefixes to render IRIs with; it must not change while the
+     *        facade is in use
+     * @param maxIdle
+     *        the most renderers to keep in the pool between calls
+     */
+    public CSNePSFragmentRenderer(@Nonnull OWLOntology ontology,
+            @Nonnull PrefixManager prefixManager, int maxIdle) {
+        ont = ontology;
+        this.prefixManager = prefixManager;
+        pool = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+    }
+
+    /**
+     * Renders one axiom, without the {@code (assert '...)} wrapper the
+     * converter adds.
+     * 
+     * @param axiom
+     *        the axiom
+     * @return the CSNePS term
+     */
+    @Nonnull
+    public String render(@Nonnull OWLAxiom axiom) {
+        return renderObject(axiom);
+    }
+
+    /**
+     * Renders any OWL object, such as a class expression, on its own.
+     * 
+     * @param object
+     *        the object
+     * @return its CSNePS rendering
+     */
+    @Nonnull
+    public String renderObject(@Nonnull OWLObject object) {
+        PooledRenderer pr = borrow();
+        try {
+            object.accept(pr.renderer);
+            return pr.buffer.toString();
+        } finally {
+            release(pr);
+        }
+    }
+
+    /**
+     * Renders an entity's definition as the converter writes it: its
+     * declarations, then its annotations and defining axioms, one term per
+     * line.
+     * 
+     * @param entity
+     *        the entity
+     * @return the CSNePS terms, newline separated
+     */
+    @Nonnull
+    public String renderEntity(@Nonnull OWLEntity entity) {
+        PooledRenderer pr = borrow();
+        try {
+            pr.renderer.writeDeclarations(entity);
+            pr.renderer.writeAxioms(entity);
+            return pr.buffer.toString();
+        } finally {
+            release(pr);
+        }
+    }
+
+    private PooledRenderer borrow() {
+        PooledRenderer pr = pool.poll();
+        if (pr == null) {
+            pr = new PooledRenderer();
+        }
+        pr.buffer.setLength(0);
+        pr.renderer.reset(pr.writer);
+        return pr;
+    }
+
+    private void release(PooledRenderer pr) {
+        if (pr.buffer.capacity() > MAX_RETAINED_CHARS) {
+            // don't pin a huge buffer from one large entity
+            return;
+        }
+        pool.offer(pr);
+    }
+
+    private final class PooledRenderer {
+        final StringBuilder buffer = new StringBuilder(256);
+        final Writer writer = CharStreams.asWriter(buffer);
+        final CSNePSSyntaxRenderer renderer = new CSNePSSyntaxRenderer(ont,
+                writer, prefixManager);
+    }
+}
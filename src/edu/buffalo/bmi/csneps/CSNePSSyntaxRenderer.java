@@ -15,12 +15,18 @@ import static org.semanticweb.owlapi.vocab.OWLXMLVocabulary.*;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.annotation.Nonnull;
 
@@ -28,20 +34,56 @@ import org.semanticweb.owlapi.formats.PrefixDocumentFormat;
 import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.model.parameters.Imports;
 import org.semanticweb.owlapi.util.DefaultPrefixManager;
-import org.semanticweb.owlapi.util.EscapeUtils;
 import org.semanticweb.owlapi.vocab.OWLXMLVocabulary;
 
 import com.google.common.base.Optional;
+import com.google.common.io.CharStreams;
+
+import edu.buffalo.bmi.csneps.ConversionProgress.Phase;
 
 public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
 
+    /**
+     * Starts the lines that mark where each entity's block of output begins,
+     * followed by the entity's IRI, or by nothing where the entity blocks
+     * end. They are written only when asked for, and are for the converter
+     * to turn into an index rather than to be asserted.
+     */
+    public static final char BLOCK_MARK = '\u001e';
+
     private PrefixManager prefixManager;
     protected final OWLOntology ont;
-    private final Writer writer;
+    private Writer writer;
     private boolean writeEntitiesAsURIs = true;
     private OWLObject focusedObject;
     private boolean addMissingDeclarations = true;
     private int uniqueId;
+    private ConversionProgress progress;
+    private MemoryBudget memoryBudget;
+    private boolean compileRules = false;
+    private boolean sharedArbitraries = false;
+    private AnnotationOutput annotationOutput;
+    private CheckpointListener checkpointListener;
+    private long checkpointIntervalNanos;
+    private long nextCheckpointNanos;
+    private RenderCheckpoint resumePoint;
+    private boolean replaying;
+    private RenderUnit unit;
+    private RenderCache renderCache;
+    private SymbolTable symbolTable;
+    private LiteralOutput literalOutput;
+    private boolean blockMarks;
+    private boolean captureExternal;
+    private StringBuilder capture;
+    private int captureBase;
+    private List<Integer> captureIds;
+    private Map<SWRLVariable, Integer> ruleVariables;
+    private Map<SWRLVariable, List<SWRLClassAtom>> ruleRestrictions;
+    private long entitiesRendered;
+    private long axiomsRendered;
+    private long charsRendered;
+    private PhaseEvent phaseEvent;
+    private long phaseAxiomsStart;
 
     /**
      * @param ontology
@@ -51,15 +93,52 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
      */
     public CSNePSSyntaxRenderer(@Nonnull OWLOntology ontology,
             Writer writer) {
+        this(ontology, writer, createPrefixManager(ontology));
+    }
+
+    /**
+     * Creates a renderer that shares an already built prefix manager, so
+     * that many renderers for one ontology do not each rebuild it. The
+     * prefix manager is only read while rendering.
+     * 
+     * @param ontology
+     *        the ontology
+     * @param writer
+     *        the writer
+     * @param prefixManager
+     *        the prefix manager, as built by
+     *        {@link #createPrefixManager(OWLOntology)}
+     */
+    public CSNePSSyntaxRenderer(@Nonnull OWLOntology ontology,
+            Writer writer, @Nonnull PrefixManager prefixManager) {
         ont = ontology;
         this.writer = writer;
-        prefixManager = new DefaultPrefixManager();
+        this.prefixManager = prefixManager;
         OWLDocumentFormat ontologyFormat = ontology.getOWLOntologyManager()
                 .getOntologyFormat(ontology);
         // reuse the setting on the existing format, if there is one
         if (ontologyFormat != null) {
             addMissingDeclarations = ontologyFormat.isAddMissingTypes();
         }
+        focusedObject = ontology.getOWLOntologyManager().getOWLDataFactory()
+                .getOWLThing();
+    }
+
+    /**
+     * Builds the prefix manager a renderer uses for an ontology: the
+     * prefixes of the ontology's document format, with the ontology IRI as
+     * the default prefix.
+     * 
+     * @param ontology
+     *        the ontology
+     * @return a new prefix manager
+     */
+    @Nonnull
+    public static PrefixManager createPrefixManager(
+            @Nonnull OWLOntology ontology) {
+        DefaultPrefixManager prefixManager = new DefaultPrefixManager();
+        OWLDocumentFormat ontologyFormat = ontology.getOWLOntologyManager()
+                .getOntologyFormat(ontology);
         if (ontologyFormat instanceof PrefixDocumentFormat) {
             prefixManager
                     .copyPrefixesFrom((PrefixDocumentFormat) ontologyFormat);
@@ -80,8 +159,26 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
                 prefixManager.setDefaultPrefix(defaultPrefix);
             }
         }
-        focusedObject = ontology.getOWLOntologyManager().getOWLDataFactory()
+        return prefixManager;
+    }
+
+    /**
+     * Prepares the renderer for another run: subsequent output goes to the
+     * given writer, and the focused object and arbitrary numbering start
+     * over.
+     * 
+     * @param newWriter
+     *        the writer for the next run
+     */
+    public void reset(Writer newWriter) {
+        writer = newWriter;
+        writeEntitiesAsURIs = true;
+        focusedObject = ont.getOWLOntologyManager().getOWLDataFactory()
                 .getOWLThing();
+        uniqueId = 0;
+        entitiesRendered = 0;
+        axiomsRendered = 0;
+        charsRendered = 0;
     }
 
     /**
@@ -94,6 +191,13 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
         addMissingDeclarations = flag;
     }
 
+    /**
+     * @return whether declarations are written for undeclared entities
+     */
+    public boolean isAddMissingDeclarations() {
+        return addMissingDeclarations;
+    }
+
     /**
      * @param prefixManager
      *        the new prefix manager
@@ -102,6 +206,141 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
         this.prefixManager = prefixManager;
     }
 
+    /**
+     * @param progress
+     *        progress to publish counters to while rendering an ontology, or
+     *        null to not report progress
+     */
+    public void setProgress(ConversionProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @param memoryBudget
+     *        heap budget after which written-axiom tracking moves off the
+     *        heap, or null to keep it on the heap
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Set whether SWRL rules are compiled into CSNePS implications over
+     * arbitraries rather than written as inert DLSafeRule terms.
+     * 
+     * @param flag
+     *        new value
+     */
+    public void setCompileRules(boolean flag) {
+        compileRules = flag;
+    }
+
+    /**
+     * Set whether the SubClassOf axioms of a named class share one
+     * arbitrary. When set, a class with more than one such axiom gets a
+     * single {@code (Isa (every x (Isa x C)) (setof ...))} term over all its
+     * superclasses instead of a term, and an arbitrary, for each.
+     * 
+     * @param flag
+     *        new value
+     */
+    public void setSharedArbitraries(boolean flag) {
+        sharedArbitraries = flag;
+    }
+
+    /**
+     * Set where annotation assertions go. When set, they are written there,
+     * grouped and indexed by subject, instead of inline with the other
+     * axioms; axiom and ontology annotations stay inline.
+     * 
+     * @param annotationOutput
+     *        the annotation destination, or null to write annotations inline
+     */
+    public void setAnnotationOutput(AnnotationOutput annotationOutput) {
+        this.annotationOutput = annotationOutput;
+    }
+
+    /**
+     * Set who is told about checkpoints while an ontology is rendered, and
+     * how often. Checkpoints fall between entities, and also at the start of
+     * the leftover axioms and at the end.
+     * 
+     * @param listener
+     *        the listener, or null for no checkpoints
+     * @param intervalMillis
+     *        the least time between checkpoints
+     */
+    public void setCheckpointListener(CheckpointListener listener,
+            long intervalMillis) {
+        checkpointListener = listener;
+        checkpointIntervalNanos = intervalMillis * 1000000L;
+    }
+
+    /**
+     * Set a checkpoint from an earlier run to carry on from. The writer must
+     * already hold the output up to that checkpoint; the ontology header and
+     * everything the checkpoint covers are not written again.
+     * 
+     * @param point
+     *        the checkpoint, or null to render from the start
+     */
+    public void setResumePoint(RenderCheckpoint point) {
+        resumePoint = point;
+    }
+
+    /**
+     * Render just one unit of the ontology, numbering its arbitraries from 1
+     * and recording where they are in it. The writer gets only the unit's
+     * text. Cannot be combined with a resume point, render cache,
+     * annotation output or literal output, which all refer to the rendering
+     * of the whole ontology.
+     * 
+     * @param unit
+     *        the unit, or null to render the whole ontology
+     */
+    public void setRenderUnit(RenderUnit unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Set a cache of rendered entity axiom groups. Groups found in the cache
+     * are copied from it instead of being rendered; the rest are rendered
+     * and added to it. Declarations and leftover axioms are always rendered.
+     * 
+     * @param cache
+     *        the cache, or null to render everything
+     */
+    public void setRenderCache(RenderCache cache) {
+        renderCache = cache;
+    }
+
+    /**
+     * @param symbols
+     *        short symbols to write in place of entity IRIs, or null to
+     *        write the IRIs
+     */
+    public void setSymbolTable(SymbolTable symbols) {
+        symbolTable = symbols;
+    }
+
+    /**
+     * @param flag
+     *        true to write a {@link #BLOCK_MARK} line before each entity's
+     *        declarations and axioms
+     */
+    public void setBlockMarks(boolean flag) {
+        blockMarks = flag;
+    }
+
+    /**
+     * @param literalOutput
+     *        side file for long literals, or null to write all literals
+     *        inline
+     */
+    public void setLiteralOutput(LiteralOutput literalOutput) {
+        this.literalOutput = literalOutput;
+    }
+
     /**
      * @param focusedObject
      *        the new focused object
@@ -137,18 +376,55 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
     protected void writeArbIsa(OWLClassExpression subclass) {
 	writeOpenBracket();
 	writeArb();
-	write("x");
-	write(""+ ++uniqueId);
+	writeArbLabel(++uniqueId);
 	writeSpace();
 	writeOpenBracket();
 	writeIsa();
-	write("x" + uniqueId);
+	writeArbLabel(uniqueId);
 	writeSpace();
 	subclass.accept(this);
 	writeCloseBracket();
 	writeCloseBracket();
     }
 
+    /**
+     * Writes the SubClassOf axioms of a named class as one term, in which
+     * the class's arbitrary is a member of each superclass.
+     */
+    void writeSharedArbIsa(@Nonnull OWLClass subclass,
+            @Nonnull List<OWLClassExpression> superClasses) {
+        writeOpenBracket();
+        writeIsa();
+        writeArbIsa(subclass);
+        writeSpace();
+        writeOpenBracket();
+        write("setof");
+        for (OWLClassExpression superClass : superClasses) {
+            writeSpace();
+            superClass.accept(this);
+        }
+        writeCloseBracket();
+        writeAxiomEnd();
+    }
+
+    /**
+     * Writes the label of an arbitrary. While a group is being captured for
+     * the render cache, the digits are left out and their place recorded,
+     * so that the cached text can be renumbered.
+     */
+    private void writeArbLabel(int id) {
+        write("x");
+        if (capture != null) {
+            captureIds.add(capture.length());
+            captureIds.add(id - captureBase);
+        } else {
+            if (unit != null) {
+                unit.addArbitrary(charsRendered);
+            }
+            write(Integer.toString(id));
+        }
+    }
+
     protected void writeInd() {
 	write("exists");
 	writeSpace();
@@ -167,6 +443,7 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
     }
 
     private void write(@Nonnull String s) {
+        charsRendered += s.length();
         try {
             writer.write(s);
         } catch (IOException e) {
@@ -174,6 +451,35 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
         }
     }
 
+    private void write(@Nonnull String s, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        charsRendered += len;
+        try {
+            writer.write(s, off, len);
+        } catch (IOException e) {
+            throw new OWLRuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes a literal's text with quotes and backslashes escaped, copying
+     * the runs between them straight to the output.
+     */
+    private void writeEscaped(@Nonnull String s) {
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                write(s, start, i - start);
+                write(c == '"' ? "\\\"" : "\\\\");
+                start = i + 1;
+            }
+        }
+        write(s, start, s.length() - start);
+    }
+
     private void flush() {
         try {
             writer.flush();
@@ -183,6 +489,13 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
     }
 
     private void write(@Nonnull IRI iri) {
+        if (symbolTable != null) {
+            String symbol = symbolTable.getSymbol(iri);
+            if (symbol != null) {
+                write(symbol);
+                return;
+            }
+        }
         String qname = prefixManager.getPrefixIRI(iri);
         if (qname != null) {
             boolean lastCharIsColon = qname.charAt(qname.length() - 1) == ':';
@@ -203,6 +516,137 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
     @SuppressWarnings("null")
     @Override
     public void visit(@Nonnull OWLOntology ontology) {
+        if (unit != null && (resumePoint != null || renderCache != null
+                || annotationOutput != null || literalOutput != null)) {
+            throw new OWLRuntimeException("A render unit cannot be combined"
+                    + " with resuming, a render cache, or separate annotation"
+                    + " or literal output");
+        }
+        if (resumePoint == null && (unit == null || unit.hasHeader())) {
+            writeHeader(ontology);
+        }
+        WrittenAxiomSet writtenSet = new WrittenAxiomSet(memoryBudget);
+        Set<OWLAxiom> writtenAxioms = writtenSet;
+        List<OWLEntity> signature = sortOptionally(ontology.getSignature());
+        if (resumePoint != null
+                && resumePoint.getSignatureSize() != signature.size()) {
+            throw new OWLRuntimeException("Checkpoint at " + resumePoint
+                    + " does not match an ontology with " + signature.size()
+                    + " entities");
+        }
+        if (unit != null) {
+            if (unit.getStart().getSignatureSize() != signature.size()) {
+                throw new OWLRuntimeException("Render unit " + unit
+                        + " does not match an ontology with "
+                        + signature.size() + " entities");
+            }
+            writtenAxioms = new UnitWrittenAxioms(writtenSet, signature);
+        }
+        Collection<IRI> illegals = OWLDocumentFormatImpl
+                .determineIllegalPunnings(addMissingDeclarations, signature,
+                        ont.getPunnedIRIs(INCLUDED));
+        if (progress != null) {
+            progress.setTotals(signature.size(), ontology.getAxiomCount());
+        }
+        if (renderCache != null) {
+            try {
+                renderCache.start(renderContext());
+            } catch (IOException e) {
+                throw new OWLRuntimeException(e);
+            }
+        }
+        nextCheckpointNanos = System.nanoTime() + checkpointIntervalNanos;
+        enterPhase(Phase.DECLARATIONS);
+        for (int i = 0; i < signature.size(); i++) {
+            if (unit != null && !unit.contains(Phase.DECLARATIONS, i)) {
+                continue;
+            }
+            replaying = isReplayed(Phase.DECLARATIONS, i);
+            writeBlockMark(signature.get(i));
+            SlowRenderEvent slow = startSlowRender();
+            writeDeclarations(signature.get(i), writtenAxioms, illegals);
+            endSlowRender(slow, signature.get(i));
+            entityDone();
+            checkpointIfDue(Phase.DECLARATIONS, i + 1, signature.size());
+        }
+        enterPhase(Phase.ENTITY_AXIOMS);
+        for (int i = 0; i < signature.size(); i++) {
+            if (unit != null && !unit.contains(Phase.ENTITY_AXIOMS, i)) {
+                continue;
+            }
+            replaying = isReplayed(Phase.ENTITY_AXIOMS, i);
+            writeBlockMark(signature.get(i));
+            SlowRenderEvent slow = startSlowRender();
+            writeAxioms(signature.get(i), writtenAxioms);
+            endSlowRender(slow, signature.get(i));
+            entityDone();
+            checkpointIfDue(Phase.ENTITY_AXIOMS, i + 1, signature.size());
+        }
+        replaying = false;
+        enterPhase(Phase.LEFTOVER_AXIOMS);
+        if (!isReplayed(Phase.LEFTOVER_AXIOMS, 0) && (unit == null
+                || unit.contains(Phase.LEFTOVER_AXIOMS, 0))) {
+            checkpoint(Phase.LEFTOVER_AXIOMS, 0, signature.size());
+            writeBlockMark(null);
+            // sorted, like the signature, because the ontology's own order
+            // follows identity hash codes, which differ from one JVM to the
+            // next
+            List<OWLAxiom> leftovers = new ArrayList<>();
+            for (OWLAxiom ax : ontology.getAxioms()) {
+                if (!writtenAxioms.contains(ax)) {
+                    leftovers.add(ax);
+                }
+            }
+            Collections.sort(leftovers);
+            for (OWLAxiom ax : leftovers) {
+                if (!writtenAxioms.contains(ax)) {
+                    if (annotationOutput != null
+                            && ax instanceof OWLAnnotationAssertionAxiom) {
+                        writeSeparateAnnotations(
+                                ((OWLAnnotationAssertionAxiom) ax).getSubject(),
+                                writtenAxioms);
+                        continue;
+                    }
+                    SlowRenderEvent slow = startSlowRender();
+                    ax.accept(this);
+                    writeReturn();
+                    ++axiomsRendered;
+                    endSlowRender(slow, ax);
+                    if ((axiomsRendered & 0x3ff) == 0) {
+                        publishProgress();
+                    }
+                }
+            }
+        }
+        publishProgress();
+        writtenSet.dispose();
+        if (unit != null) {
+            unit.setIdsUsed(uniqueId);
+        }
+        endPhaseEvent();
+        //writeCloseBracket();
+        PhaseEvent flushEvent = new PhaseEvent("flush");
+        flush();
+        flushEvent.commit();
+        checkpoint(Phase.DONE, 0, signature.size());
+    }
+
+    /**
+     * Marks the start of an entity's block, or with a null entity the end of
+     * the last one, if block marks are on and the block is not already in
+     * the output of a resumed run.
+     */
+    private void writeBlockMark(OWLEntity entity) {
+        if (blockMarks && !replaying) {
+            write(Character.toString(BLOCK_MARK));
+            if (entity != null) {
+                write(entity.getIRI().toString());
+            }
+            writeReturn();
+        }
+    }
+
+    void writeHeader(@Nonnull OWLOntology ontology) {
         writePrefixes();
         writeReturn();
         writeReturn();
@@ -232,25 +676,106 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
             writeReturn();
         }
         writeReturn();
-        Set<OWLAxiom> writtenAxioms = new HashSet<>();
-        List<OWLEntity> signature = sortOptionally(ontology.getSignature());
-        Collection<IRI> illegals = OWLDocumentFormatImpl
-                .determineIllegalPunnings(addMissingDeclarations, signature,
-                        ont.getPunnedIRIs(INCLUDED));
-        for (OWLEntity ent : signature) {
-            writeDeclarations(ent, writtenAxioms, illegals);
+    }
+
+    /**
+     * @return true if the entity at the given position was finished before
+     *         the resume point, so only the bookkeeping for it is redone
+     */
+    private boolean isReplayed(@Nonnull Phase phase, int i) {
+        if (resumePoint == null) {
+            return false;
         }
-        for (OWLEntity ent : signature) {
-            writeAxioms(ent, writtenAxioms);
+        if (resumePoint.covers(phase, i)) {
+            return true;
         }
-        for (OWLAxiom ax : ontology.getAxioms()) {
-            if (!writtenAxioms.contains(ax)) {
-                ax.accept(this);
-                writeReturn();
-            }
+        uniqueId = resumePoint.getUniqueId();
+        resumePoint = null;
+        return false;
+    }
+
+    private void checkpointIfDue(@Nonnull Phase phase, int position,
+            int signatureSize) {
+        if (checkpointListener != null && !replaying
+                && System.nanoTime() - nextCheckpointNanos >= 0) {
+            checkpoint(phase, position, signatureSize);
+        }
+    }
+
+    private void checkpoint(@Nonnull Phase phase, int position,
+            int signatureSize) {
+        if (checkpointListener == null) {
+            return;
         }
-        //writeCloseBracket();
         flush();
+        try {
+            checkpointListener.checkpoint(new RenderCheckpoint(phase, position,
+                    uniqueId, signatureSize));
+        } catch (IOException e) {
+            throw new OWLRuntimeException(e);
+        }
+        nextCheckpointNanos = System.nanoTime() + checkpointIntervalNanos;
+    }
+
+    private void enterPhase(@Nonnull Phase phase) {
+        endPhaseEvent();
+        phaseEvent = new PhaseEvent(phase.toString());
+        phaseAxiomsStart = axiomsRendered;
+        entitiesRendered = 0;
+        if (progress != null) {
+            publishProgress();
+            progress.setPhase(phase);
+        }
+    }
+
+    private void endPhaseEvent() {
+        if (phaseEvent != null) {
+            phaseEvent.entities = entitiesRendered;
+            phaseEvent.axioms = axiomsRendered - phaseAxiomsStart;
+            phaseEvent.commit();
+            phaseEvent = null;
+        }
+    }
+
+    /**
+     * Starts timing the rendering of one entity or axiom. The event is
+     * filled in only if it is to be recorded, so when no recording is
+     * running this costs an allocation the JIT can remove.
+     */
+    @Nonnull
+    private SlowRenderEvent startSlowRender() {
+        SlowRenderEvent event = new SlowRenderEvent();
+        event.axioms = axiomsRendered;
+        event.chars = charsRendered;
+        event.begin();
+        return event;
+    }
+
+    private void endSlowRender(@Nonnull SlowRenderEvent event,
+            @Nonnull Object subject) {
+        event.end();
+        if (!replaying && event.shouldCommit()) {
+            event.phase = phaseEvent != null ? phaseEvent.phase : null;
+            String text = subject instanceof OWLEntity
+                    ? ((OWLEntity) subject).getIRI().toString()
+                    : subject.toString();
+            event.subject = text.length() > 200 ? text.substring(0, 200)
+                    : text;
+            event.axioms = axiomsRendered - event.axioms;
+            event.chars = charsRendered - event.chars;
+            event.commit();
+        }
+    }
+
+    private void entityDone() {
+        entitiesRendered++;
+        publishProgress();
+    }
+
+    private void publishProgress() {
+        if (progress != null) {
+            progress.update(entitiesRendered, axiomsRendered, charsRendered);
+        }
     }
 
     /**
@@ -270,63 +795,315 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
     private void writeAxioms(@Nonnull OWLEntity entity,
             @Nonnull Set<OWLAxiom> alreadyWrittenAxioms) {
         setFocusedObject(entity);
+        if (renderCache != null) {
+            writeCachedAxioms(entity, alreadyWrittenAxioms);
+            return;
+        }
         writeAnnotations(entity, alreadyWrittenAxioms);
-        List<? extends OWLAxiom> axs = entity
-                .accept(new OWLEntityVisitorEx<List<? extends OWLAxiom>>() {
+        List<? extends OWLAxiom> axs = definingAxioms(entity);
+        List<OWLAxiom> group = new ArrayList<>();
+        for (OWLAxiom ax : axs) {
+            if (!alreadyWrittenAxioms.contains(ax) && isWrittenWithEntity(ax)) {
+                group.add(ax);
+            }
+        }
+        if (!replaying) {
+            writeGroup(entity, group);
+            axiomsRendered += group.size();
+        }
+        alreadyWrittenAxioms.addAll(group);
+    }
+
+    /**
+     * Writes an entity's axioms, each on its own line, except that with
+     * shared arbitraries a class's SubClassOf axioms go on one line where
+     * the first of them would be.
+     */
+    private void writeGroup(@Nonnull OWLEntity entity,
+            @Nonnull List<OWLAxiom> group) {
+        List<OWLClassExpression> superClasses = null;
+        if (sharedArbitraries && entity.isOWLClass()) {
+            superClasses = new ArrayList<>();
+            for (OWLAxiom ax : group) {
+                if (isSubClassAxiomOf(ax, entity)) {
+                    superClasses.add(((OWLSubClassOfAxiom) ax).getSuperClass());
+                }
+            }
+            if (superClasses.size() < 2) {
+                superClasses = null;
+            }
+        }
+        boolean sharedWritten = false;
+        for (OWLAxiom ax : group) {
+            if (superClasses != null && isSubClassAxiomOf(ax, entity)) {
+                if (sharedWritten) {
+                    continue;
+                }
+                writeSharedArbIsa(entity.asOWLClass(), superClasses);
+                sharedWritten = true;
+            } else {
+                ax.accept(this);
+            }
+            writeReturn();
+        }
+    }
+
+    /**
+     * @return true if the axiom is a SubClassOf axiom with the class as its
+     *         subclass
+     */
+    static boolean isSubClassAxiomOf(@Nonnull OWLAxiom ax,
+            @Nonnull OWLEntity cls) {
+        return ax instanceof OWLSubClassOfAxiom
+                && ((OWLSubClassOfAxiom) ax).getSubClass().equals(cls);
+    }
+
+    @Nonnull
+    private List<? extends OWLAxiom> definingAxioms(@Nonnull OWLEntity entity) {
+        return sortOptionally(definingAxiomSet(entity));
+    }
+
+    @Nonnull
+    private Set<? extends OWLAxiom> definingAxiomSet(@Nonnull OWLEntity entity) {
+        return entity
+                .accept(new OWLEntityVisitorEx<Set<? extends OWLAxiom>>() {
 
                     @Override
-                    public List<? extends OWLAxiom> visit(OWLClass cls) {
-                        return sortOptionally(ont.getAxioms(cls, EXCLUDED));
+                    public Set<? extends OWLAxiom> visit(OWLClass cls) {
+                        return ont.getAxioms(cls, EXCLUDED);
                     }
 
                     @Override
-                    public List<? extends OWLAxiom> visit(
+                    public Set<? extends OWLAxiom> visit(
                             OWLObjectProperty property) {
-                        return sortOptionally(ont.getAxioms(property, EXCLUDED));
+                        return ont.getAxioms(property, EXCLUDED);
                     }
 
                     @Override
-                    public List<? extends OWLAxiom> visit(
+                    public Set<? extends OWLAxiom> visit(
                             OWLDataProperty property) {
-                        return sortOptionally(ont.getAxioms(property, EXCLUDED));
+                        return ont.getAxioms(property, EXCLUDED);
                     }
 
                     @Override
-                    public List<? extends OWLAxiom> visit(
+                    public Set<? extends OWLAxiom> visit(
                             OWLNamedIndividual individual) {
-                        return sortOptionally(ont.getAxioms(individual,
-                                EXCLUDED));
+                        return ont.getAxioms(individual, EXCLUDED);
                     }
 
                     @Override
-                    public List<? extends OWLAxiom> visit(OWLDatatype datatype) {
-                        return sortOptionally(ont.getAxioms(datatype, EXCLUDED));
+                    public Set<? extends OWLAxiom> visit(OWLDatatype datatype) {
+                        return ont.getAxioms(datatype, EXCLUDED);
                     }
 
                     @Override
-                    public List<? extends OWLAxiom> visit(
+                    public Set<? extends OWLAxiom> visit(
                             OWLAnnotationProperty property) {
-                        return sortOptionally(ont.getAxioms(property, EXCLUDED));
+                        return ont.getAxioms(property, EXCLUDED);
                     }
                 });
-        Set<OWLAxiom> writtenAxioms = new HashSet<>();
-        for (OWLAxiom ax : axs) {
-            if (alreadyWrittenAxioms.contains(ax)) {
-                continue;
+    }
+
+    /**
+     * The axioms written so far while rendering a unit, together with those
+     * written before the unit. The latter are found from the axiom itself:
+     * it was written before the unit if it is the declaration of an entity
+     * declared before it, or belongs to the axiom group of an entity whose
+     * axioms were written before it.
+     */
+    private class UnitWrittenAxioms extends AbstractSet<OWLAxiom> {
+
+        private final Set<OWLAxiom> written;
+        private final Map<OWLEntity, Integer> positions = new HashMap<>();
+        /** The first position of an entity with each IRI. */
+        private final Map<IRI, Integer> iriPositions = new HashMap<>();
+
+        UnitWrittenAxioms(@Nonnull Set<OWLAxiom> written,
+                @Nonnull List<OWLEntity> signature) {
+            this.written = written;
+            for (int i = 0; i < signature.size(); i++) {
+                positions.put(signature.get(i), i);
+                if (!iriPositions.containsKey(signature.get(i).getIRI())) {
+                    iriPositions.put(signature.get(i).getIRI(), i);
+                }
             }
-            if (ax.getAxiomType().equals(AxiomType.DIFFERENT_INDIVIDUALS)) {
-                continue;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return written.contains(o) || o instanceof OWLAxiom
+                    && isWrittenBefore((OWLAxiom) o);
+        }
+
+        @Override
+        public boolean add(OWLAxiom ax) {
+            return written.add(ax);
+        }
+
+        @Override
+        public Iterator<OWLAxiom> iterator() {
+            return written.iterator();
+        }
+
+        @Override
+        public int size() {
+            return written.size();
+        }
+
+        private boolean isWrittenBefore(@Nonnull OWLAxiom ax) {
+            RenderCheckpoint start = unit.getStart();
+            if (ax instanceof OWLDeclarationAxiom) {
+                return isBefore(((OWLDeclarationAxiom) ax).getEntity(),
+                        Phase.DECLARATIONS);
             }
-            if (ax.getAxiomType().equals(AxiomType.DISJOINT_CLASSES)
-                    && ((OWLDisjointClassesAxiom) ax).getClassExpressions()
-                            .size() > 2) {
-                continue;
+            if (ax instanceof OWLAnnotationAssertionAxiom) {
+                Integer i = iriPositions.get(((OWLAnnotationAssertionAxiom) ax)
+                        .getSubject());
+                if (i != null && start.covers(Phase.ENTITY_AXIOMS, i)) {
+                    return true;
+                }
             }
-            ax.accept(this);
-            writtenAxioms.add(ax);
-            writeReturn();
+            if (!isWrittenWithEntity(ax)
+                    || start.getPhase().compareTo(Phase.DECLARATIONS) <= 0) {
+                return false;
+            }
+            for (OWLEntity entity : ax.getSignature()) {
+                if (isBefore(entity, Phase.ENTITY_AXIOMS)
+                        && definingAxiomSet(entity).contains(ax)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isBefore(@Nonnull OWLEntity entity,
+                @Nonnull Phase phase) {
+            Integer i = positions.get(entity);
+            return i != null && unit.getStart().covers(phase, i);
         }
-        alreadyWrittenAxioms.addAll(writtenAxioms);
+    }
+
+    /**
+     * Different individuals axioms, and disjoint classes axioms over more
+     * than two classes, are left for the leftover axioms.
+     */
+    private static boolean isWrittenWithEntity(@Nonnull OWLAxiom ax) {
+        if (ax.getAxiomType().equals(AxiomType.DIFFERENT_INDIVIDUALS)) {
+            return false;
+        }
+        return !(ax.getAxiomType().equals(AxiomType.DISJOINT_CLASSES)
+                && ((OWLDisjointClassesAxiom) ax).getClassExpressions()
+                        .size() > 2);
+    }
+
+    /**
+     * Writes the same axioms as {@link #writeAxioms(OWLEntity, Set)}, taking
+     * the text from the render cache when the entity's group is unchanged.
+     */
+    private void writeCachedAxioms(@Nonnull OWLEntity entity,
+            @Nonnull Set<OWLAxiom> alreadyWrittenAxioms) {
+        List<OWLAxiom> group = new ArrayList<>();
+        if (annotationOutput != null) {
+            writeSeparateAnnotations(entity.getIRI(), alreadyWrittenAxioms);
+        } else {
+            for (OWLAxiom ax : ont.getAnnotationAssertionAxioms(entity
+                    .getIRI())) {
+                if (!alreadyWrittenAxioms.contains(ax)) {
+                    group.add(ax);
+                }
+            }
+        }
+        for (OWLAxiom ax : definingAxioms(entity)) {
+            if (!alreadyWrittenAxioms.contains(ax) && isWrittenWithEntity(ax)) {
+                group.add(ax);
+            }
+        }
+        alreadyWrittenAxioms.addAll(group);
+        if (group.isEmpty()) {
+            return;
+        }
+        byte[] key = RenderCache.key(entity, group);
+        RenderCache.Entry cached = renderCache.get(key, group.size());
+        // a group written before the resume point is still rendered on a
+        // miss, though not written, so that the new cache keeps it
+        if (cached == null) {
+            Writer main = writer;
+            capture = new StringBuilder();
+            captureIds = new ArrayList<>();
+            captureBase = uniqueId;
+            captureExternal = false;
+            writer = CharStreams.asWriter(capture);
+            try {
+                writeGroup(entity, group);
+            } finally {
+                writer = main;
+            }
+            int[] ids = new int[captureIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = captureIds.get(i);
+            }
+            String text = capture.toString();
+            int idsUsed = uniqueId - captureBase;
+            // the text is counted again as it is copied out below
+            charsRendered -= capture.length();
+            uniqueId = captureBase;
+            capture = null;
+            captureIds = null;
+            if (captureExternal) {
+                // refers to the side file of this run, so is not kept
+                if (!replaying) {
+                    writeSpliced(text, ids, idsUsed);
+                    axiomsRendered += group.size();
+                }
+                return;
+            }
+            cached = renderCache.put(key, group.size(), idsUsed, ids, text);
+        }
+        if (replaying) {
+            return;
+        }
+        writeSpliced(cached.getText(), cached.getIds(), cached.getIdsUsed());
+        axiomsRendered += group.size();
+    }
+
+    /**
+     * Writes captured text, numbering its arbitraries from the next unique
+     * id.
+     */
+    private void writeSpliced(@Nonnull String text, @Nonnull int[] ids,
+            int idsUsed) {
+        int pos = 0;
+        for (int i = 0; i < ids.length; i += 2) {
+            write(text, pos, ids[i] - pos);
+            write(Integer.toString(uniqueId + ids[i + 1]));
+            pos = ids[i];
+        }
+        write(text, pos, text.length() - pos);
+        uniqueId += idsUsed;
+    }
+
+    /**
+     * @return everything besides the axioms themselves that the rendered
+     *         text of an entity's axiom group depends on
+     */
+    @Nonnull
+    private String renderContext() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("compileRules=").append(compileRules);
+        sb.append(" sharedArbitraries=").append(sharedArbitraries);
+        sb.append(" separateAnnotations=").append(annotationOutput != null);
+        sb.append(" default=").append(prefixManager.getDefaultPrefix());
+        for (Map.Entry<String, String> e : new TreeMap<>(
+                prefixManager.getPrefixName2PrefixMap()).entrySet()) {
+            sb.append(' ').append(e.getKey()).append('=').append(e.getValue());
+        }
+        if (symbolTable != null) {
+            sb.append(" symbols=").append(symbolTable.getFingerprint());
+        }
+        if (literalOutput != null) {
+            sb.append(" literalThreshold=").append(literalOutput.getThreshold());
+        }
+        return sb.toString();
     }
 
     /**
@@ -353,9 +1130,10 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
         Collection<OWLDeclarationAxiom> axioms = ont
                 .getDeclarationAxioms(entity);
         for (OWLDeclarationAxiom ax : axioms) {
-            if (!alreadyWrittenAxioms.contains(ax)) {
+            if (!replaying && !alreadyWrittenAxioms.contains(ax)) {
                 ax.accept(this);
                 writeReturn();
+                axiomsRendered++;
             }
         }
         // if multiple illegal declarations already exist, they have already
@@ -363,7 +1141,7 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
         // the renderer cannot take responsibility for removing them
         // It should not add declarations for illegally punned entities here,
         // though
-        if (addMissingDeclarations && axioms.isEmpty()) {
+        if (addMissingDeclarations && axioms.isEmpty() && !replaying) {
             // if declarations should be added, check if the IRI is illegally
             // punned
             if (!entity.isBuiltIn() && !illegals.contains(entity.getIRI())
@@ -388,13 +1166,53 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
      */
     protected void writeAnnotations(@Nonnull OWLEntity entity,
             @Nonnull Set<OWLAxiom> alreadyWrittenAxioms) {
+        if (annotationOutput != null) {
+            writeSeparateAnnotations(entity.getIRI(), alreadyWrittenAxioms);
+            return;
+        }
         Set<OWLAnnotationAssertionAxiom> annotationAssertionAxioms = ont
                 .getAnnotationAssertionAxioms(entity.getIRI());
         for (OWLAnnotationAxiom ax : annotationAssertionAxioms) {
-            if (!alreadyWrittenAxioms.contains(ax)) {
+            if (!replaying && !alreadyWrittenAxioms.contains(ax)) {
                 ax.accept(this);
                 writeReturn();
+                axiomsRendered++;
+            }
+        }
+        alreadyWrittenAxioms.addAll(annotationAssertionAxioms);
+    }
+
+    /**
+     * Writes the annotation assertions for a subject to the annotation
+     * output as one indexed group.
+     */
+    private void writeSeparateAnnotations(
+            @Nonnull OWLAnnotationSubject subject,
+            @Nonnull Set<OWLAxiom> alreadyWrittenAxioms) {
+        Set<OWLAnnotationAssertionAxiom> annotationAssertionAxioms = ont
+                .getAnnotationAssertionAxioms(subject);
+        if (annotationAssertionAxioms.isEmpty() || replaying) {
+            alreadyWrittenAxioms.addAll(annotationAssertionAxioms);
+            return;
+        }
+        Writer main = writer;
+        writer = annotationOutput;
+        annotationOutput.startSubject(subject instanceof IRI ? subject
+                .toString() : ((OWLAnonymousIndividual) subject).getID()
+                .toString());
+        try {
+            for (OWLAnnotationAxiom ax : annotationAssertionAxioms) {
+                if (!alreadyWrittenAxioms.contains(ax)) {
+                    ax.accept(this);
+                    writeReturn();
+                    axiomsRendered++;
+                }
             }
+            annotationOutput.endSubject();
+        } catch (IOException e) {
+            throw new OWLRuntimeException(e);
+        } finally {
+            writer = main;
         }
         alreadyWrittenAxioms.addAll(annotationAssertionAxioms);
     }
@@ -1017,8 +1835,29 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
 
     @Override
     public void visit(@Nonnull OWLLiteral node) {
+        String literal = node.getLiteral();
+        if (literalOutput != null && literalOutput.isExternal(literal)) {
+            // the side file is not part of the render cache
+            captureExternal = true;
+            if (replaying) {
+                // stored before the resume point, and this text is dropped
+                return;
+            }
+            long[] range;
+            try {
+                range = literalOutput.store(literal);
+            } catch (IOException e) {
+                throw new OWLRuntimeException(e);
+            }
+            write("(ExternalLiteral ");
+            write(Long.toString(range[0]));
+            writeSpace();
+            write(Long.toString(range[1]));
+            write(")");
+            return;
+        }
         write("\"");
-        write(EscapeUtils.escapeString(node.getLiteral()));
+        writeEscaped(literal);
         write("\"");
         // TODO: Do something about this [DRS].
 //        if (node.hasLang()) {
@@ -1201,6 +2040,10 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
 
     @Override
     public void visit(@Nonnull SWRLRule rule) {
+        if (compileRules && isCompilable(rule)) {
+            writeCompiledRule(rule);
+            return;
+        }
         writeAxiomStart(DL_SAFE_RULE, rule);
         writeOpenBracket();
         write(BODY);
@@ -1215,6 +2058,196 @@ public class CSNePSSyntaxRenderer implements OWLObjectVisitor {
         writeAxiomEnd();
     }
 
+    /**
+     * Built-ins and data ranges have no CSNePS counterpart, so rules using
+     * them stay in their inert form. So do rules with a body variable that
+     * only class atoms mention: it would never be written, and the
+     * condition its class atoms put on the rule would be lost.
+     */
+    private static boolean isCompilable(@Nonnull SWRLRule rule) {
+        Set<SWRLArgument> written = new HashSet<>();
+        for (SWRLAtom atom : rule.getBody()) {
+            if (atom instanceof SWRLBuiltInAtom
+                    || atom instanceof SWRLDataRangeAtom) {
+                return false;
+            }
+            if (!isRestriction(atom)) {
+                written.addAll(atom.getAllArguments());
+            }
+        }
+        for (SWRLAtom atom : rule.getHead()) {
+            if (atom instanceof SWRLBuiltInAtom
+                    || atom instanceof SWRLDataRangeAtom) {
+                return false;
+            }
+            written.addAll(atom.getAllArguments());
+        }
+        for (SWRLAtom atom : rule.getBody()) {
+            if (isRestriction(atom)
+                    && !written.contains(((SWRLClassAtom) atom).getArgument())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a body atom becomes a restriction of its variable's
+     *         arbitrary rather than an antecedent
+     */
+    private static boolean isRestriction(@Nonnull SWRLAtom atom) {
+        return atom instanceof SWRLClassAtom
+                && ((SWRLClassAtom) atom).getArgument() instanceof SWRLVariable;
+    }
+
+    /**
+     * Writes a rule as a CSNePS implication. Each variable becomes an
+     * arbitrary, as writeArbIsa does for subclass axioms: the body's class
+     * atoms on a variable become the arbitrary's restrictions, and the
+     * remaining body atoms become the antecedents. A variable without class
+     * atoms is an arbitrary with no restriction, since the converted data
+     * never asserts owl:Thing or rdfs:Literal of anything. A rule whose body
+     * is only class atoms needs no antecedent, so its head is asserted of
+     * the arbitraries directly. Rule annotations are not written.
+     */
+    private void writeCompiledRule(@Nonnull SWRLRule rule) {
+        Map<SWRLVariable, List<SWRLClassAtom>> restrictions = new LinkedHashMap<>();
+        List<SWRLAtom> antecedents = new ArrayList<>();
+        for (SWRLAtom atom : rule.getBody()) {
+            collectVariables(atom, restrictions);
+            if (isRestriction(atom)) {
+                SWRLClassAtom classAtom = (SWRLClassAtom) atom;
+                restrictions.get(classAtom.getArgument()).add(classAtom);
+            } else {
+                antecedents.add(atom);
+            }
+        }
+        for (SWRLAtom atom : rule.getHead()) {
+            collectVariables(atom, restrictions);
+        }
+
+        ruleVariables = new LinkedHashMap<>();
+        ruleRestrictions = restrictions;
+        if (antecedents.isEmpty() && rule.getHead().size() == 1) {
+            writeRuleAtom(rule.getHead().iterator().next());
+        } else if (antecedents.isEmpty()) {
+            writeOpenBracket();
+            write("and");
+            for (SWRLAtom atom : rule.getHead()) {
+                writeSpace();
+                writeRuleAtom(atom);
+            }
+            writeCloseBracket();
+        } else {
+            writeOpenBracket();
+            write("if");
+            writeSpace();
+            writeRuleAtoms(antecedents);
+            writeSpace();
+            writeRuleAtoms(rule.getHead());
+            writeCloseBracket();
+        }
+        ruleVariables = null;
+        ruleRestrictions = null;
+    }
+
+    private static void collectVariables(@Nonnull SWRLAtom atom,
+            @Nonnull Map<SWRLVariable, List<SWRLClassAtom>> restrictions) {
+        for (SWRLArgument arg : atom.getAllArguments()) {
+            if (arg instanceof SWRLVariable && !restrictions.containsKey(arg)) {
+                restrictions.put((SWRLVariable) arg,
+                        new ArrayList<SWRLClassAtom>());
+            }
+        }
+    }
+
+    /**
+     * Writes one atom, or several in a setof, as the antecedent or
+     * consequent of a compiled rule.
+     */
+    private void writeRuleAtoms(@Nonnull Collection<? extends SWRLAtom> atoms) {
+        if (atoms.size() == 1) {
+            writeRuleAtom(atoms.iterator().next());
+            return;
+        }
+        writeOpenBracket();
+        write("setof");
+        for (SWRLAtom atom : atoms) {
+            writeSpace();
+            writeRuleAtom(atom);
+        }
+        writeCloseBracket();
+    }
+
+    /**
+     * Writes an atom in the same form as the assertion it matches, so that
+     * the compiled rule fires on the converted ABox: a class atom as a
+     * ClassAssertion, a property atom as a property assertion, and so on.
+     */
+    private void writeRuleAtom(@Nonnull SWRLAtom atom) {
+        writeOpenBracket();
+        if (atom instanceof SWRLClassAtom) {
+            write(CLASS_ASSERTION);
+            writeSpace();
+            ((SWRLClassAtom) atom).getPredicate().accept(this);
+            writeSpace();
+            writeRuleArgument(((SWRLClassAtom) atom).getArgument());
+        } else {
+            SWRLBinaryAtom<?, ?> binary = (SWRLBinaryAtom<?, ?>) atom;
+            if (atom instanceof SWRLObjectPropertyAtom) {
+                write(OBJECT_PROPERTY_ASSERTION);
+            } else if (atom instanceof SWRLDataPropertyAtom) {
+                write(DATA_PROPERTY_ASSERTION);
+            } else if (atom instanceof SWRLSameIndividualAtom) {
+                write(SAME_INDIVIDUAL);
+            } else {
+                write(DIFFERENT_INDIVIDUALS);
+            }
+            writeSpace();
+            if (atom instanceof SWRLObjectPropertyAtom
+                    || atom instanceof SWRLDataPropertyAtom) {
+                ((OWLObject) atom.getPredicate()).accept(this);
+                writeSpace();
+            }
+            writeRuleArgument(binary.getFirstArgument());
+            writeSpace();
+            writeRuleArgument(binary.getSecondArgument());
+        }
+        writeCloseBracket();
+    }
+
+    /**
+     * Writes a variable as its arbitrary the first time it occurs in the
+     * rule, and by its label after that.
+     */
+    private void writeRuleArgument(@Nonnull SWRLArgument arg) {
+        if (!(arg instanceof SWRLVariable)) {
+            arg.accept(this);
+            return;
+        }
+        Integer label = ruleVariables.get(arg);
+        if (label != null) {
+            writeArbLabel(label);
+            return;
+        }
+        label = ++uniqueId;
+        ruleVariables.put((SWRLVariable) arg, label);
+        writeOpenBracket();
+        writeArb();
+        writeArbLabel(label);
+        for (SWRLClassAtom restriction : ruleRestrictions.get(arg)) {
+            writeSpace();
+            writeOpenBracket();
+            write(CLASS_ASSERTION);
+            writeSpace();
+            restriction.getPredicate().accept(this);
+            writeSpace();
+            writeArbLabel(label);
+            writeCloseBracket();
+        }
+        writeCloseBracket();
+    }
+
     @Override
     public void visit(@Nonnull SWRLIndividualArgument node) {
         node.getIndividual().accept(this);
@@ -0,0 +1,25 @@
+/**
+ * Receives the checkpoints a renderer reaches.
+ *
+ * When {@link #checkpoint(RenderCheckpoint)} is called, everything the
+ * renderer has written so far belongs to the checkpoint, and nothing after
+ * it does. The listener is expected to make that output durable before
+ * recording the checkpoint.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+public interface CheckpointListener {
+
+    /**
+     * @param point
+     *        the checkpoint reached
+     * @throws IOException
+     *         if the checkpoint cannot be recorded
+     */
+    void checkpoint(@Nonnull RenderCheckpoint point) throws IOException;
+}
@@ -0,0 +1,197 @@
+/**
+ * Shared view of how far a conversion has got.
+ *
+ * The converting thread is the only writer; a reporter thread may read the
+ * counters at any time. Counters are published at entity granularity so
+ * that the render loop never pays more than a volatile store per entity.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+public class ConversionProgress {
+
+    public enum Phase {
+        LOAD("load"),
+        DECLARATIONS("declarations"),
+        ENTITY_AXIOMS("entity axioms"),
+        LEFTOVER_AXIOMS("leftover axioms"),
+        WORKERS("workers"),
+        WRITE("write"),
+        DONE("done");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private volatile Phase phase = Phase.LOAD;
+    private volatile long phaseStartNanos = startNanos;
+    private volatile long renderStartNanos = -1;
+    private volatile long entitiesTotal;
+    private volatile long entitiesDone;
+    private volatile long axiomsTotal;
+    private volatile long axiomsDone;
+    private volatile long charsRendered;
+    private volatile long unitsTotal;
+    private volatile long unitsKept;
+    private volatile long unitsDone;
+    private volatile long linesTotal = -1;
+    private volatile long linesWritten;
+    private volatile long bytesWritten;
+
+    /**
+     * Moves to the given phase, resetting the per-phase entity counter.
+     *
+     * @param phase
+     *        the new phase
+     */
+    public void setPhase(Phase phase) {
+        this.entitiesDone = 0;
+        this.phaseStartNanos = System.nanoTime();
+        this.phase = phase;
+    }
+
+    /**
+     * @param entities
+     *        number of entities in the signature being rendered
+     * @param axioms
+     *        number of axioms in the ontology being rendered
+     */
+    public void setTotals(long entities, long axioms) {
+        renderStartNanos = System.nanoTime();
+        entitiesTotal = entities;
+        axiomsTotal = axioms;
+    }
+
+    /**
+     * Publishes the renderer's counters.
+     *
+     * @param entities
+     *        entities finished in the current phase
+     * @param axioms
+     *        axioms rendered so far
+     * @param chars
+     *        characters rendered so far
+     */
+    public void update(long entities, long axioms, long chars) {
+        entitiesDone = entities;
+        axiomsDone = axioms;
+        charsRendered = chars;
+    }
+
+    /**
+     * @param total
+     *        number of units the workers render the ontology in
+     * @param kept
+     *        units already done by an earlier run
+     */
+    public void setUnitTotals(long total, long kept) {
+        unitsTotal = total;
+        unitsKept = kept;
+        unitsDone = kept;
+    }
+
+    /**
+     * @param done
+     *        units the workers have finished, including those kept
+     */
+    public void setUnitsDone(long done) {
+        unitsDone = done;
+    }
+
+    /**
+     * @param lines
+     *        rendered lines the write phase has to copy, or -1 if not known
+     */
+    public void setLinesTotal(long lines) {
+        linesTotal = lines;
+    }
+
+    /**
+     * @param lines
+     *        rendered lines copied to the output file so far
+     * @param bytes
+     *        bytes written to the output file so far
+     */
+    public void setWritten(long lines, long bytes) {
+        linesWritten = lines;
+        bytesWritten = bytes;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getPhaseStartNanos() {
+        return phaseStartNanos;
+    }
+
+    /**
+     * @return when rendering started, or -1 if it has not
+     */
+    public long getRenderStartNanos() {
+        return renderStartNanos;
+    }
+
+    public long getEntitiesTotal() {
+        return entitiesTotal;
+    }
+
+    public long getEntitiesDone() {
+        return entitiesDone;
+    }
+
+    public long getAxiomsTotal() {
+        return axiomsTotal;
+    }
+
+    public long getAxiomsDone() {
+        return axiomsDone;
+    }
+
+    public long getCharsRendered() {
+        return charsRendered;
+    }
+
+    /**
+     * @return units the workers render in, or 0 if rendering in process
+     */
+    public long getUnitsTotal() {
+        return unitsTotal;
+    }
+
+    public long getUnitsKept() {
+        return unitsKept;
+    }
+
+    public long getUnitsDone() {
+        return unitsDone;
+    }
+
+    /**
+     * @return rendered lines the write phase has to copy, or -1 if not known
+     */
+    public long getLinesTotal() {
+        return linesTotal;
+    }
+
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Pulls single entities' assertions out of a converter output file, using
+ * the index written through {@link EntityIndexOutput}.
+ *
+ * The output file is memory-mapped, in segments of up to a gigabyte, so a
+ * lookup costs one hash probe and a copy of the entity's bytes however
+ * large the file is. Only the index is read up front. Lookups may be made
+ * from several threads at once.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.IRI;
+
+public class EntityIndex implements Closeable {
+
+    private static final int SEGMENT_BITS = 30;
+
+    /** Byte ranges of each entity's blocks, as offset and length pairs. */
+    private final Map<String, long[]> ranges = new HashMap<>();
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final Charset charset;
+
+    /**
+     * @param file
+     *        the converter output
+     * @param indexFile
+     *        its index
+     * @throws IOException
+     *         if either file cannot be read, or the index is malformed
+     */
+    public EntityIndex(@Nonnull File file, @Nonnull File indexFile)
+            throws IOException {
+        this(file, indexFile, Charset.defaultCharset());
+    }
+
+    /**
+     * @param file
+     *        the converter output
+     * @param indexFile
+     *        its index
+     * @param charset
+     *        the encoding the output was written in
+     * @throws IOException
+     *         if either file cannot be read, or the index is malformed
+     */
+    public EntityIndex(@Nonnull File file, @Nonnull File indexFile,
+            @Nonnull Charset charset) throws IOException {
+        this.charset = charset;
+        for (String line : Files.readAllLines(indexFile.toPath(),
+                StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 3) {
+                throw new IOException("Malformed index line: " + line);
+            }
+            long[] range;
+            try {
+                range = new long[] { Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]) };
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed index line: " + line, e);
+            }
+            long[] known = ranges.get(fields[0]);
+            if (known != null) {
+                long[] both = Arrays.copyOf(known, known.length + 2);
+                both[known.length] = range[0];
+                both[known.length + 1] = range[1];
+                range = both;
+            }
+            ranges.put(fields[0], range);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size >> SEGMENT_BITS) + 1)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(1L << SEGMENT_BITS, size - start));
+        }
+    }
+
+    /**
+     * @return the IRIs of the indexed entities
+     */
+    @Nonnull
+    public Set<String> getEntities() {
+        return Collections.unmodifiableSet(ranges.keySet());
+    }
+
+    /**
+     * @param entity
+     *        the entity's IRI
+     * @return the lines written for it, its declarations first; empty if it
+     *         has none
+     * @throws IOException
+     *         if the output is shorter than its index
+     */
+    @Nonnull
+    public List<String> getAssertions(@Nonnull IRI entity) throws IOException {
+        return getAssertions(entity.toString());
+    }
+
+    /**
+     * @param entity
+     *        the entity's IRI
+     * @return the lines written for it, its declarations first; empty if it
+     *         has none
+     * @throws IOException
+     *         if the output is shorter than its index
+     */
+    @Nonnull
+    public List<String> getAssertions(@Nonnull String entity)
+            throws IOException {
+        long[] range = ranges.get(entity);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < range.length; i += 2) {
+            for (String line : new String(read(range[i], (int) range[i + 1]),
+                    charset).split("\n")) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            long at = offset + done;
+            int segment = (int) (at >> SEGMENT_BITS);
+            if (segment >= segments.length) {
+                throw new IOException("Output file is shorter than its index");
+            }
+            ByteBuffer buf = segments[segment].duplicate();
+            int pos = (int) (at & ((1L << SEGMENT_BITS) - 1));
+            if (pos >= buf.limit()) {
+                throw new IOException("Output file is shorter than its index");
+            }
+            buf.position(pos);
+            int n = Math.min(length - done, buf.remaining());
+            buf.get(bytes, done, n);
+            done += n;
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Writes the index of an output file's entity blocks.
+ *
+ * A block is what the renderer writes for one entity in one pass: its
+ * declarations, or its annotations and defining axioms. Each non-empty
+ * block gets a line of the form {@code IRI<TAB>offset<TAB>length}, giving
+ * its byte range in the output file, so an entity usually has two lines.
+ * {@link EntityIndex} reads the blocks back.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+public class EntityIndexOutput implements Closeable {
+
+    private final Writer index;
+    private String entity;
+    private long blockStart;
+    private int blocks;
+
+    /**
+     * @param indexFile
+     *        the file to write the index to
+     * @throws IOException
+     *         if the file cannot be created
+     */
+    public EntityIndexOutput(@Nonnull File indexFile) throws IOException {
+        index = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(indexFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Ends the current block, if any, and starts another.
+     *
+     * @param iri
+     *        the entity the new block is for, or null if what follows
+     *        belongs to no entity
+     * @param offset
+     *        the byte offset in the output where the new block starts
+     * @throws IOException
+     *         if the index cannot be written
+     */
+    public void startBlock(String iri, long offset) throws IOException {
+        if (entity != null && offset > blockStart) {
+            index.write(entity + '\t' + blockStart + '\t'
+                    + (offset - blockStart) + '\n');
+            blocks++;
+        }
+        entity = iri;
+        blockStart = offset;
+    }
+
+    /**
+     * @return the number of blocks indexed so far
+     */
+    public int getBlockCount() {
+        return blocks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+}
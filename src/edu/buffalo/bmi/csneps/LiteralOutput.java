@@ -0,0 +1,126 @@
+/**
+ * A side file for literals too long to be worth carrying in the assertion
+ * stream, such as multi-kilobyte definitions.
+ *
+ * Each literal is stored as UTF-8 without escaping and followed by a
+ * newline, and the renderer writes {@code (ExternalLiteral offset length)}
+ * in its place, giving the byte range of its text in the side file.
+ * {@link LiteralStore} reads them back.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+
+public class LiteralOutput {
+
+    private final int threshold;
+    private final FileChannel channel;
+    private final OutputStream out;
+    private long offset;
+
+    /**
+     * @param file
+     *        the side file
+     * @param threshold
+     *        literals longer than this many characters go to the side file
+     * @throws IOException
+     *         if the file cannot be created
+     */
+    public LiteralOutput(@Nonnull File file, int threshold) throws IOException {
+        this(file, threshold, 0);
+    }
+
+    /**
+     * Reopens the side file of an earlier run, discarding anything past the
+     * given length, and carries on after it.
+     *
+     * @param file
+     *        the side file
+     * @param threshold
+     *        literals longer than this many characters go to the side file
+     * @param offset
+     *        the length of the file to keep
+     * @throws IOException
+     *         if the file cannot be opened
+     */
+    public LiteralOutput(@Nonnull File file, int threshold, long offset)
+            throws IOException {
+        this.threshold = threshold;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        channel.truncate(offset);
+        channel.position(offset);
+        out = new BufferedOutputStream(Channels.newOutputStream(channel),
+                1 << 16);
+        this.offset = offset;
+    }
+
+    /**
+     * @param literal
+     *        the lexical form of a literal
+     * @return true if it goes to the side file
+     */
+    public boolean isExternal(@Nonnull String literal) {
+        return literal.length() > threshold;
+    }
+
+    /**
+     * @return the threshold in characters
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Stores a literal. Repeated literals are stored again, so that the
+     * side file depends only on what has been rendered, as a resumed
+     * conversion requires.
+     *
+     * @param literal
+     *        the lexical form of the literal
+     * @return its offset and length in bytes in the side file
+     * @throws IOException
+     *         if the file cannot be written
+     */
+    @Nonnull
+    public long[] store(@Nonnull String literal) throws IOException {
+        byte[] utf8 = literal.getBytes(StandardCharsets.UTF_8);
+        out.write(utf8);
+        out.write('\n');
+        long[] range = new long[] { offset, utf8.length };
+        offset += utf8.length + 1;
+        return range;
+    }
+
+    /**
+     * @return the number of bytes written to the side file so far
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Flushes the side file and forces it to the storage device.
+     *
+     * @throws IOException
+     *         if the file cannot be written
+     */
+    public void sync() throws IOException {
+        out.flush();
+        channel.force(false);
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Reads back literals written to a side file through {@link LiteralOutput},
+ * given the offset and length from an {@code (ExternalLiteral offset length)}
+ * term. Reads are positional, so lookups may be made from several threads
+ * at once.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+
+public class LiteralStore implements Closeable {
+
+    private final FileChannel channel;
+
+    /**
+     * @param file
+     *        the side file
+     * @throws IOException
+     *         if the file cannot be opened
+     */
+    public LiteralStore(@Nonnull File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * @param offset
+     *        the literal's byte offset
+     * @param length
+     *        its length in bytes
+     * @return the literal's lexical form
+     * @throws IOException
+     *         if the file cannot be read or is too short
+     */
+    @Nonnull
+    public String get(long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new IOException("Literal file ends before " + (offset + length));
+            }
+        }
+        return new String(buf.array(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * A heap budget for a conversion.
+ *
+ * The budget is expressed as a fraction of the maximum heap. It is watched
+ * through the post-collection usage thresholds of the heap memory pools, so
+ * garbage that is about to be collected does not count against it. Once the
+ * budget has been exceeded it stays exceeded: structures that spill to disk
+ * never move back onto the heap.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MemoryBudget {
+
+    private final double fraction;
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    private volatile boolean exceeded;
+
+    /**
+     * @param fraction
+     *        fraction of the maximum heap that the conversion may use before
+     *        it starts spilling, in (0, 1]
+     */
+    public MemoryBudget(double fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException(
+                    "Heap fraction must be in (0, 1]: " + fraction);
+        }
+        this.fraction = fraction;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP
+                    && pool.isCollectionUsageThresholdSupported()) {
+                long max = pool.getUsage().getMax();
+                if (max > 0) {
+                    pool.setCollectionUsageThreshold((long) (max * fraction));
+                    pools.add(pool);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the fraction of the heap this budget allows
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Checks the budget. This is cheap enough to call every few thousand
+     * operations, but not on every one.
+     *
+     * @return true if the heap has been over budget after a collection
+     */
+    public boolean isExceeded() {
+        if (exceeded) {
+            return true;
+        }
+        if (pools.isEmpty()) {
+            Runtime rt = Runtime.getRuntime();
+            long used = rt.totalMemory() - rt.freeMemory();
+            exceeded = used > rt.maxMemory() * fraction;
+        } else {
+            for (MemoryPoolMXBean pool : pools) {
+                if (pool.isCollectionUsageThresholdExceeded()) {
+                    exceeded = true;
+                    break;
+                }
+            }
+        }
+        return exceeded;
+    }
+}
@@ -13,15 +13,161 @@ import org.semanticweb.owlapi.io.AbstractOWLRenderer;
 import org.semanticweb.owlapi.io.OWLRendererException;
 import org.semanticweb.owlapi.io.OWLRendererIOException;
 import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.PrefixManager;
 
 public class OWLCSNePSSyntaxRenderer extends AbstractOWLRenderer {
 
+    private ConversionProgress progress;
+    private MemoryBudget memoryBudget;
+    private boolean compileRules = false;
+    private boolean sharedArbitraries = false;
+    private AnnotationOutput annotationOutput;
+    private CheckpointListener checkpointListener;
+    private long checkpointIntervalMillis;
+    private RenderCheckpoint resumePoint;
+    private RenderUnit renderUnit;
+    private RenderCache renderCache;
+    private PrefixManager prefixManager;
+    private SymbolTable symbolTable;
+    private LiteralOutput literalOutput;
+    private boolean blockMarks;
+
+    /**
+     * @param progress
+     *        progress to report to while rendering, or null for none
+     */
+    public void setProgress(ConversionProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @param memoryBudget
+     *        heap budget for the renderer's own bookkeeping, or null for none
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @param flag
+     *        true to compile SWRL rules into CSNePS implications
+     */
+    public void setCompileRules(boolean flag) {
+        compileRules = flag;
+    }
+
+    /**
+     * @param flag
+     *        true to give each named class one arbitrary for all its
+     *        SubClassOf axioms
+     */
+    public void setSharedArbitraries(boolean flag) {
+        sharedArbitraries = flag;
+    }
+
+    /**
+     * @param annotationOutput
+     *        separate, indexed destination for annotation assertions, or
+     *        null to write them inline
+     */
+    public void setAnnotationOutput(AnnotationOutput annotationOutput) {
+        this.annotationOutput = annotationOutput;
+    }
+
+    /**
+     * @param listener
+     *        told about each checkpoint while rendering, or null for none
+     * @param intervalMillis
+     *        the least time between checkpoints
+     */
+    public void setCheckpointListener(CheckpointListener listener,
+            long intervalMillis) {
+        checkpointListener = listener;
+        checkpointIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * @param point
+     *        checkpoint of an earlier run to carry on from, or null to render
+     *        from the start
+     */
+    public void setResumePoint(RenderCheckpoint point) {
+        resumePoint = point;
+    }
+
+    /**
+     * @param unit
+     *        the one unit of the ontology to render, or null for all of it
+     */
+    public void setRenderUnit(RenderUnit unit) {
+        renderUnit = unit;
+    }
+
+    /**
+     * @param cache
+     *        cache of rendered entity axiom groups, or null for none
+     */
+    public void setRenderCache(RenderCache cache) {
+        renderCache = cache;
+    }
+
+    /**
+     * @param prefixManager
+     *        the prefixes to render with, or null for those of the
+     *        ontology's document format
+     */
+    public void setPrefixManager(PrefixManager prefixManager) {
+        this.prefixManager = prefixManager;
+    }
+
+    /**
+     * @param symbols
+     *        short symbols to write in place of entity IRIs, or null to
+     *        write the IRIs
+     */
+    public void setSymbolTable(SymbolTable symbols) {
+        symbolTable = symbols;
+    }
+
+    /**
+     * @param literalOutput
+     *        side file for long literals, or null to write all literals
+     *        inline
+     */
+    public void setLiteralOutput(LiteralOutput literalOutput) {
+        this.literalOutput = literalOutput;
+    }
+
+    /**
+     * @param flag
+     *        true to mark where each entity's output begins, for indexing
+     */
+    public void setBlockMarks(boolean flag) {
+        blockMarks = flag;
+    }
+
     @Override
     public void render(@Nonnull OWLOntology ontology, @Nonnull Writer writer)
             throws OWLRendererException {
         try {
         	CSNePSSyntaxRenderer ren = new CSNePSSyntaxRenderer(
                     ontology, writer);
+            ren.setProgress(progress);
+            ren.setMemoryBudget(memoryBudget);
+            ren.setCompileRules(compileRules);
+            ren.setSharedArbitraries(sharedArbitraries);
+            ren.setAnnotationOutput(annotationOutput);
+            ren.setCheckpointListener(checkpointListener,
+                    checkpointIntervalMillis);
+            ren.setResumePoint(resumePoint);
+            ren.setRenderUnit(renderUnit);
+            ren.setRenderCache(renderCache);
+            ren.setSymbolTable(symbolTable);
+            ren.setLiteralOutput(literalOutput);
+            ren.setBlockMarks(blockMarks);
+            if (prefixManager != null) {
+                ren.setPrefixManager(prefixManager);
+            }
             ontology.accept(ren);
             writer.flush();
         } catch (IOException e) {
@@ -0,0 +1,360 @@
+/**
+ * Predicts the size and make-up of an ontology's CSNePS rendering without
+ * writing it.
+ *
+ * Each axiom is rendered on its own by a {@link CSNePSSyntaxRenderer} into a
+ * reused buffer, which is then scanned for its length, its functors and how
+ * deeply its terms nest; nothing is kept between axioms. This skips what
+ * makes a full render slow on large ontologies, grouping axioms by entity
+ * and remembering which have been written, while the sizes still come from
+ * the renderer's own code. Functors that {@code res/caseframes.sneps} does
+ * not define, and that are not built into CSNePS, are reported separately,
+ * since the knowledge base relies on novice mode to make caseframes for
+ * them.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.model.PrefixManager;
+import org.semanticweb.owlapi.model.parameters.Imports;
+
+import com.google.common.io.CharStreams;
+
+public class OntologyAnalyzer {
+
+    private static final Pattern FSYMBOLS = Pattern
+            .compile(":fsymbols\\s+'\\(([^)]*)\\)");
+
+    /** Functors CSNePS defines itself. */
+    private static final Set<String> BUILT_INS = new HashSet<>(Arrays.asList(
+            "Isa", "Equiv", "every", "some", "and", "or", "not", "nor",
+            "andor", "thresh", "if", "iff", "xor", "setof"));
+
+    /** The converter writes each term as {@code (assert '<term>)}. */
+    private static final int ASSERT_OVERHEAD = "(assert ')".length();
+
+    private final OWLOntology ontology;
+    private final Set<String> caseframeSymbols;
+    private final StringBuilder buffer = new StringBuilder(256);
+    private final CSNePSSyntaxRenderer renderer;
+    private boolean sharedArbitraries;
+
+    private final Map<String, long[]> axiomTypes = new HashMap<>();
+    private final Map<String, long[]> functors = new HashMap<>();
+    private long bytes;
+    private long terms;
+    private long largestTerm;
+    private int maxDepth;
+    private long nanos;
+
+    /**
+     * @param ontology
+     *        the ontology to analyse
+     * @param prefixManager
+     *        the prefixes it would be rendered with
+     * @param caseframeSymbols
+     *        the functors the caseframe file defines, as read by
+     *        {@link #readCaseframeSymbols(File)}
+     */
+    public OntologyAnalyzer(@Nonnull OWLOntology ontology,
+            @Nonnull PrefixManager prefixManager,
+            @Nonnull Set<String> caseframeSymbols) {
+        this.ontology = ontology;
+        this.caseframeSymbols = caseframeSymbols;
+        Writer writer = CharStreams.asWriter(buffer);
+        renderer = new CSNePSSyntaxRenderer(ontology, writer, prefixManager);
+    }
+
+    /**
+     * @param file
+     *        a file of caseframe definitions
+     * @return the function symbols it gives caseframes to
+     * @throws IOException
+     *         if the file cannot be read
+     */
+    @Nonnull
+    public static Set<String> readCaseframeSymbols(@Nonnull File file)
+            throws IOException {
+        Set<String> symbols = new HashSet<>();
+        Matcher m = FSYMBOLS.matcher(new String(Files.readAllBytes(file
+                .toPath()), StandardCharsets.UTF_8));
+        while (m.find()) {
+            for (String symbol : m.group(1).trim().split("\\s+")) {
+                if (!symbol.isEmpty()) {
+                    symbols.add(symbol);
+                }
+            }
+        }
+        return symbols;
+    }
+
+    /**
+     * @param flag
+     *        true if SWRL rules would be compiled into CSNePS rules
+     */
+    public void setCompileRules(boolean flag) {
+        renderer.setCompileRules(flag);
+    }
+
+    /**
+     * @param flag
+     *        true if each named class's SubClassOf axioms would share one
+     *        arbitrary
+     */
+    public void setSharedArbitraries(boolean flag) {
+        sharedArbitraries = flag;
+    }
+
+    /**
+     * @param symbols
+     *        short symbols entity IRIs would be written as, or null
+     */
+    public void setSymbolTable(SymbolTable symbols) {
+        renderer.setSymbolTable(symbols);
+    }
+
+    /**
+     * Renders and measures the header and every axiom, including the
+     * declarations the renderer would add for undeclared entities.
+     */
+    public void analyze() {
+        long start = System.nanoTime();
+        buffer.setLength(0);
+        renderer.writeHeader(ontology);
+        scan();
+        Map<OWLClass, List<OWLClassExpression>> shared = sharedArbitraries ? superClasses()
+                : Collections.<OWLClass, List<OWLClassExpression>> emptyMap();
+        for (OWLAxiom ax : ontology.getAxioms()) {
+            count(axiomTypes, ax.getAxiomType().getName());
+            if (!(ax instanceof OWLSubClassOfAxiom && shared
+                    .containsKey(((OWLSubClassOfAxiom) ax).getSubClass()))) {
+                render(ax);
+            }
+        }
+        for (Map.Entry<OWLClass, List<OWLClassExpression>> e : shared.entrySet()) {
+            buffer.setLength(0);
+            renderer.writeSharedArbIsa(e.getKey(), e.getValue());
+            buffer.append('\n');
+            scan();
+        }
+        if (renderer.isAddMissingDeclarations()) {
+            OWLDataFactory df = ontology.getOWLOntologyManager()
+                    .getOWLDataFactory();
+            for (OWLEntity entity : ontology.getSignature()) {
+                if (!entity.isBuiltIn()
+                        && !ontology.isDeclared(entity, Imports.INCLUDED)) {
+                    count(axiomTypes, "Declaration (added)");
+                    render(df.getOWLDeclarationAxiom(entity));
+                }
+            }
+        }
+        nanos = System.nanoTime() - start;
+    }
+
+    /**
+     * @return the superclasses of each named class with more than one
+     *         SubClassOf axiom, which would share an arbitrary
+     */
+    private Map<OWLClass, List<OWLClassExpression>> superClasses() {
+        Map<OWLClass, List<OWLClassExpression>> superClasses = new HashMap<>();
+        for (OWLSubClassOfAxiom ax : ontology.getAxioms(AxiomType.SUBCLASS_OF)) {
+            if (!ax.getSubClass().isAnonymous()) {
+                OWLClass cls = ax.getSubClass().asOWLClass();
+                List<OWLClassExpression> list = superClasses.get(cls);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    superClasses.put(cls, list);
+                }
+                list.add(ax.getSuperClass());
+            }
+        }
+        Iterator<List<OWLClassExpression>> it = superClasses.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().size() < 2) {
+                it.remove();
+            }
+        }
+        return superClasses;
+    }
+
+    private void render(OWLAxiom ax) {
+        buffer.setLength(0);
+        ax.accept(renderer);
+        buffer.append('\n');
+        scan();
+    }
+
+    /**
+     * Measures the lines in the buffer as the converter would write them,
+     * counting the functor after each opening bracket that is not inside a
+     * string or an IRI.
+     */
+    private void scan() {
+        int lineStart = 0;
+        int depth = 0;
+        boolean inString = false;
+        boolean inIRI = false;
+        int n = buffer.length();
+        for (int i = 0; i < n; i++) {
+            char c = buffer.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (inIRI) {
+                inIRI = c != '>';
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '<') {
+                inIRI = true;
+            } else if (c == '(') {
+                maxDepth = Math.max(maxDepth, ++depth);
+                int end = i + 1;
+                while (end < n && " ()\"<\n".indexOf(buffer.charAt(end)) < 0) {
+                    end++;
+                }
+                if (end > i + 1) {
+                    count(functors, buffer.substring(i + 1, end));
+                }
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '\n') {
+                line(lineStart, i);
+                lineStart = i + 1;
+                depth = 0;
+            }
+        }
+        if (lineStart < n) {
+            line(lineStart, n);
+        }
+    }
+
+    private void line(int start, int end) {
+        int length = end - start;
+        if (length > 0 && buffer.charAt(start) == '(') {
+            bytes += length + ASSERT_OVERHEAD + 1;
+            terms++;
+            largestTerm = Math.max(largestTerm, length);
+        } else {
+            bytes += length + 1;
+        }
+    }
+
+    private static void count(Map<String, long[]> counts, String key) {
+        long[] c = counts.get(key);
+        if (c == null) {
+            c = new long[1];
+            counts.put(key, c);
+        }
+        c[0]++;
+    }
+
+    /**
+     * @return the estimated length of the rendered terms, with their assert
+     *         wrappers
+     */
+    public long getEstimatedBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of terms that would be asserted
+     */
+    public long getTermCount() {
+        return terms;
+    }
+
+    /**
+     * @return the functors used that have neither a caseframe nor a
+     *         built-in meaning, with how often each is used
+     */
+    @Nonnull
+    public Map<String, Long> getUncoveredFunctors() {
+        Map<String, Long> uncovered = new HashMap<>();
+        for (Map.Entry<String, long[]> e : functors.entrySet()) {
+            if (!caseframeSymbols.contains(e.getKey())
+                    && !BUILT_INS.contains(e.getKey())) {
+                uncovered.put(e.getKey(), e.getValue()[0]);
+            }
+        }
+        return uncovered;
+    }
+
+    /**
+     * Writes the findings.
+     *
+     * @param out
+     *        where to write them
+     * @param preludeBytes
+     *        the length of what the converter writes before the terms
+     */
+    public void writeReport(@Nonnull PrintStream out, long preludeBytes) {
+        out.println("Estimated output: " + (preludeBytes + bytes) + " bytes in "
+                + terms + " terms (" + preludeBytes + " bytes of prelude)");
+        out.println("Largest term: " + largestTerm
+                + " characters; deepest nesting: " + maxDepth);
+        out.println("Analysed in " + nanos / 1000000 + " ms");
+        out.println();
+        out.println("Axioms by type:");
+        writeCounts(out, axiomTypes);
+        out.println();
+        out.println("Terms by functor:");
+        writeCounts(out, functors);
+        out.println();
+        Map<String, long[]> uncovered = new HashMap<>();
+        for (Map.Entry<String, Long> e : getUncoveredFunctors().entrySet()) {
+            uncovered.put(e.getKey(), new long[] { e.getValue() });
+        }
+        out.println("Functors without a caseframe (left to novice mode):");
+        if (uncovered.isEmpty()) {
+            out.println("  none");
+        }
+        writeCounts(out, uncovered);
+    }
+
+    private static void writeCounts(PrintStream out,
+            final Map<String, long[]> counts) {
+        List<String> keys = new ArrayList<>(counts.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int c = Long.compare(counts.get(b)[0], counts.get(a)[0]);
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        for (String key : keys) {
+            out.println(String.format("  %-32s %d", key, counts.get(key)[0]));
+        }
+    }
+}
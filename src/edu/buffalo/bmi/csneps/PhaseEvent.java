@@ -0,0 +1,44 @@
+/**
+ * Flight Recorder event spanning one phase of a conversion: loading the
+ * ontology, writing the caseframe prelude, each rendering pass, and
+ * flushing and writing the output.
+ *
+ * Like every JFR event it costs next to nothing unless a recording with it
+ * enabled is running.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("edu.buffalo.bmi.csneps.ConversionPhase")
+@Label("Conversion Phase")
+@Category("CSNePS Converter")
+@Description("One phase of an OWL to CSNePS conversion")
+public class PhaseEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Entities")
+    @Description("Entities visited in the phase, where it works by entity")
+    public long entities;
+
+    @Label("Axioms")
+    @Description("Axioms rendered in the phase")
+    public long axioms;
+
+    /**
+     * Creates the event and starts timing it.
+     *
+     * @param phase
+     *        the phase's name
+     */
+    public PhaseEvent(String phase) {
+        this.phase = phase;
+        begin();
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Chooses short prefixes for the namespaces an ontology uses but its
+ * document does not declare, so that their IRIs are written as prefixed
+ * names rather than in full.
+ *
+ * Each entity in the signature is weighted by the number of axioms that
+ * mention it, which is roughly how often the renderer writes its IRI. A
+ * prefix saves the length of its namespace, less that of its name, on
+ * every occurrence and costs one Prefix term, so a namespace is given one
+ * exactly when that is a net saving. Since IRIs in different namespaces
+ * never compete for a prefix, that choice is optimal for the estimate;
+ * the shortest free names go to the most frequent namespaces.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.PrefixManager;
+import org.semanticweb.owlapi.model.parameters.Imports;
+
+import com.google.common.base.Optional;
+
+public class PrefixOptimizer {
+
+    /** Length of a Prefix term, besides its name and namespace. */
+    private static final int PREFIX_TERM_OVERHEAD = "(assert '(Prefix \"=<>\"))\n"
+            .length();
+
+    private final PrefixManager prefixManager;
+    private int namespacesSeen;
+    private int prefixesAdded;
+    private long bytesSaved;
+
+    /**
+     * @param prefixManager
+     *        the prefixes to extend, such as those made by
+     *        {@link CSNePSSyntaxRenderer#createPrefixManager(OWLOntology)};
+     *        existing mappings are kept
+     */
+    public PrefixOptimizer(@Nonnull PrefixManager prefixManager) {
+        this.prefixManager = prefixManager;
+    }
+
+    /**
+     * Adds the prefixes that shrink the rendering of an ontology.
+     *
+     * @param ontology
+     *        the ontology that will be rendered
+     * @return the prefix manager, extended
+     */
+    @Nonnull
+    public PrefixManager optimize(@Nonnull OWLOntology ontology) {
+        final Map<String, long[]> namespaces = new HashMap<>();
+        for (OWLEntity entity : ontology.getSignature()) {
+            IRI iri = entity.getIRI();
+            Optional<String> remainder = iri.getRemainder();
+            if (!remainder.isPresent() || prefixManager.getPrefixIRI(iri) != null) {
+                continue;
+            }
+            long uses = ontology.getReferencingAxioms(entity, Imports.EXCLUDED)
+                    .size()
+                    + ontology.getAnnotationAssertionAxioms(iri).size();
+            long[] counts = namespaces.get(iri.getNamespace());
+            if (counts == null) {
+                counts = new long[1];
+                namespaces.put(iri.getNamespace(), counts);
+            }
+            counts[0] += uses;
+        }
+        namespacesSeen = namespaces.size();
+
+        List<String> byUses = new ArrayList<>(namespaces.keySet());
+        Collections.sort(byUses, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int c = Long.compare(namespaces.get(b)[0], namespaces.get(a)[0]);
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        int nextName = 0;
+        for (String namespace : byUses) {
+            String name;
+            do {
+                name = prefixName(nextName++);
+            } while (prefixManager.containsPrefixMapping(name));
+            long uses = namespaces.get(namespace)[0];
+            // "<namespace" + ">" becomes "name"
+            long saved = uses * (namespace.length() + 2 - name.length())
+                    - (PREFIX_TERM_OVERHEAD + name.length() + namespace.length());
+            if (saved <= 0) {
+                // later namespaces are used no more often and get names no
+                // shorter, but a longer namespace may still pay off
+                nextName--;
+                continue;
+            }
+            prefixManager.setPrefix(name, namespace);
+            prefixesAdded++;
+            bytesSaved += saved;
+        }
+        return prefixManager;
+    }
+
+    /**
+     * @return the n-th prefix name in order of length: a: to z:, then aa:
+     *         to zz:, and so on
+     */
+    private static String prefixName(int n) {
+        StringBuilder sb = new StringBuilder();
+        n++;
+        while (n > 0) {
+            n--;
+            sb.append((char) ('a' + n % 26));
+            n /= 26;
+        }
+        return sb.reverse().append(':').toString();
+    }
+
+    /**
+     * @return the number of undeclared namespaces found in the signature
+     */
+    public int getNamespacesSeen() {
+        return namespacesSeen;
+    }
+
+    /**
+     * @return the number of prefixes added
+     */
+    public int getPrefixesAdded() {
+        return prefixesAdded;
+    }
+
+    /**
+     * @return the estimated number of bytes the added prefixes save
+     */
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+}
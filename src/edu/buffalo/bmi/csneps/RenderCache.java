@@ -0,0 +1,349 @@
+/**
+ * A persistent cache of the CSNePS text rendered for each entity's axiom
+ * group: its annotation assertions and defining axioms, in the order the
+ * renderer writes them.
+ *
+ * Entries are keyed by an MD5 digest of the entity and the text of the
+ * axioms in its group, so a group whose axioms are unchanged since the last
+ * run is found again without rendering it, and any change to an axiom,
+ * even one that keeps its hash code, gives a new key. Arbitrary numbers in
+ * the cached text are stored relative to the start of the group and
+ * renumbered when the text is reused. The whole cache is dropped if the prefixes or
+ * renderer settings it was made with have changed.
+ *
+ * Each run writes a new cache holding just the groups it used, which
+ * replaces the old one on {@link #commit()}; until then the old cache is
+ * left as it was.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLRuntimeException;
+
+public class RenderCache {
+
+    private static final int MAGIC = 0x43535243;
+    private static final int VERSION = 2;
+    private static final int KEY_BYTES = 16;
+
+    /**
+     * Rendered text for one axiom group.
+     */
+    public static final class Entry {
+
+        private final int axiomCount;
+        private final int idsUsed;
+        private final int[] ids;
+        private final String text;
+        private final byte[] encoded;
+
+        private Entry(int axiomCount, int idsUsed, int[] ids, String text,
+                byte[] encoded) {
+            this.axiomCount = axiomCount;
+            this.idsUsed = idsUsed;
+            this.ids = ids;
+            this.text = text;
+            this.encoded = encoded;
+        }
+
+        /**
+         * @return how many arbitrary numbers the group uses
+         */
+        public int getIdsUsed() {
+            return idsUsed;
+        }
+
+        /**
+         * @return pairs of (offset in the text, arbitrary number relative to
+         *         the group), in text order; the text leaves out the digits
+         *         of each arbitrary number
+         */
+        @Nonnull
+        public int[] getIds() {
+            return ids;
+        }
+
+        @Nonnull
+        public String getText() {
+            return text;
+        }
+    }
+
+    private final File file;
+    private final File newFile;
+    private final Map<ByteBuffer, long[]> index = new HashMap<>();
+    private FileChannel old;
+    private ByteBuffer mapped;
+    private DataOutputStream out;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param file
+     *        the cache file, which need not exist yet
+     */
+    public RenderCache(@Nonnull File file) {
+        this.file = file;
+        newFile = new File(file.getPath() + ".new");
+    }
+
+    /**
+     * Opens the old cache, if it was made in the same context, and starts
+     * the new one.
+     *
+     * @param context
+     *        the prefixes and settings the rendered text depends on
+     * @throws IOException
+     *         if the new cache cannot be created
+     */
+    public void start(@Nonnull String context) throws IOException {
+        byte[] contextHash = md5(context);
+        if (file.exists()) {
+            try {
+                readIndex(contextHash);
+            } catch (IOException e) {
+                // an unreadable cache is only a cache miss
+                index.clear();
+            }
+            if (!index.isEmpty()) {
+                old = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                if (old.size() <= Integer.MAX_VALUE) {
+                    mapped = old.map(FileChannel.MapMode.READ_ONLY, 0,
+                            old.size());
+                }
+            }
+        }
+        out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(newFile)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(contextHash);
+    }
+
+    private void readIndex(byte[] contextHash) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            byte[] hash = new byte[contextHash.length];
+            in.readFully(hash);
+            if (!MessageDigest.isEqual(hash, contextHash)) {
+                return;
+            }
+            long pos = 8 + hash.length;
+            while (true) {
+                byte[] key = new byte[KEY_BYTES];
+                try {
+                    in.readFully(key);
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = in.readInt();
+                pos += KEY_BYTES + 4;
+                index.put(ByteBuffer.wrap(key), new long[] { pos, length });
+                in.skipBytes(length);
+                pos += length;
+            }
+        }
+    }
+
+    /**
+     * Computes the cache key of an entity's axiom group.
+     *
+     * @param entity
+     *        the entity
+     * @param group
+     *        the axioms written for it, in order
+     * @return the key, an MD5 digest of the entity's type and IRI and the
+     *         text of each axiom
+     */
+    @Nonnull
+    public static byte[] key(@Nonnull OWLEntity entity,
+            @Nonnull List<? extends OWLAxiom> group) {
+        MessageDigest digest = md5();
+        update(digest, entity.getEntityType().getName());
+        update(digest, entity.getIRI().toString());
+        for (OWLAxiom ax : group) {
+            update(digest, ax.toString());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Adds a string to a digest, preceded by its length so that no two
+     * sequences of strings run together the same way.
+     */
+    private static void update(MessageDigest digest, String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(utf8.length).array());
+        digest.update(utf8);
+    }
+
+    /**
+     * Looks up a group, and keeps it for the new cache if found.
+     *
+     * @param key
+     *        the group's key
+     * @param axiomCount
+     *        the number of axioms in the group
+     * @return the cached text, or null if there is none
+     */
+    public Entry get(@Nonnull byte[] key, int axiomCount) {
+        long[] loc = index.get(ByteBuffer.wrap(key));
+        if (loc == null) {
+            misses++;
+            return null;
+        }
+        try {
+            byte[] encoded = new byte[(int) loc[1]];
+            if (mapped != null) {
+                ByteBuffer buf = mapped.duplicate();
+                buf.position((int) loc[0]);
+                buf.get(encoded);
+            } else {
+                ByteBuffer buf = ByteBuffer.wrap(encoded);
+                while (buf.hasRemaining()) {
+                    if (old.read(buf, loc[0] + buf.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+            }
+            Entry entry = decode(encoded);
+            if (entry.axiomCount != axiomCount) {
+                misses++;
+                return null;
+            }
+            append(key, entry.encoded);
+            hits++;
+            return entry;
+        } catch (IOException e) {
+            throw new OWLRuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds a freshly rendered group to the new cache.
+     *
+     * @param key
+     *        the group's key
+     * @param axiomCount
+     *        the number of axioms in the group
+     * @param idsUsed
+     *        how many arbitrary numbers the group uses
+     * @param ids
+     *        pairs of (offset in text, relative arbitrary number)
+     * @param text
+     *        the rendered text without the digits of arbitrary numbers
+     * @return the new entry
+     */
+    @Nonnull
+    public Entry put(@Nonnull byte[] key, int axiomCount, int idsUsed,
+            @Nonnull int[] ids, @Nonnull String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(16 + 4 * ids.length + utf8.length);
+        buf.putInt(axiomCount).putInt(idsUsed).putInt(ids.length);
+        for (int id : ids) {
+            buf.putInt(id);
+        }
+        buf.putInt(utf8.length).put(utf8);
+        try {
+            append(key, buf.array());
+        } catch (IOException e) {
+            throw new OWLRuntimeException(e);
+        }
+        return new Entry(axiomCount, idsUsed, ids, text, buf.array());
+    }
+
+    private void append(byte[] key, byte[] encoded) throws IOException {
+        out.write(key);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private static Entry decode(byte[] encoded) {
+        ByteBuffer buf = ByteBuffer.wrap(encoded);
+        int axiomCount = buf.getInt();
+        int idsUsed = buf.getInt();
+        int[] ids = new int[buf.getInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = buf.getInt();
+        }
+        int length = buf.getInt();
+        String text = new String(encoded, buf.position(), length,
+                StandardCharsets.UTF_8);
+        return new Entry(axiomCount, idsUsed, ids, text, encoded);
+    }
+
+    /**
+     * @return the number of groups found in the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of groups that had to be rendered
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Replaces the old cache with the new one.
+     *
+     * @throws IOException
+     *         if the new cache cannot be written
+     */
+    public void commit() throws IOException {
+        mapped = null;
+        if (old != null) {
+            old.close();
+            old = null;
+        }
+        if (out != null) {
+            out.close();
+            out = null;
+            Files.move(newFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static byte[] md5(String s) {
+        return md5().digest(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new OWLRuntimeException(e);
+        }
+    }
+}
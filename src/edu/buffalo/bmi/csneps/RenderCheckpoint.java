@@ -0,0 +1,75 @@
+/**
+ * A consistent point in the rendering of an ontology, from which a later
+ * run over the same ontology can carry on.
+ *
+ * Everything the renderer needs besides its output is captured by where it
+ * is in the sorted signature and the next arbitrary number: the set of
+ * axioms already written is rebuilt on resume by walking the signature up
+ * to the checkpoint without writing anything.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import javax.annotation.Nonnull;
+
+import edu.buffalo.bmi.csneps.ConversionProgress.Phase;
+
+public final class RenderCheckpoint {
+
+    private final Phase phase;
+    private final int position;
+    private final int uniqueId;
+    private final int signatureSize;
+
+    /**
+     * @param phase
+     *        the rendering phase; {@link Phase#DONE} once rendering is
+     *        complete
+     * @param position
+     *        the number of signature entities finished in that phase
+     * @param uniqueId
+     *        the last arbitrary number used
+     * @param signatureSize
+     *        the size of the signature being rendered
+     */
+    public RenderCheckpoint(@Nonnull Phase phase, int position, int uniqueId,
+            int signatureSize) {
+        this.phase = phase;
+        this.position = position;
+        this.uniqueId = uniqueId;
+        this.signatureSize = signatureSize;
+    }
+
+    @Nonnull
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getUniqueId() {
+        return uniqueId;
+    }
+
+    public int getSignatureSize() {
+        return signatureSize;
+    }
+
+    /**
+     * @param p
+     *        a rendering phase
+     * @param i
+     *        a position in the signature
+     * @return true if the given entity had been finished at this checkpoint
+     */
+    boolean covers(@Nonnull Phase p, int i) {
+        return phase.compareTo(p) > 0 || phase == p && i < position;
+    }
+
+    @Override
+    public String toString() {
+        return phase + " " + position + "/" + signatureSize;
+    }
+}
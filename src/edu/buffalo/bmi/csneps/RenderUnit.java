@@ -0,0 +1,275 @@
+/**
+ * A contiguous part of the rendering of an ontology, from one point in its
+ * sorted signature to another, that can be rendered on its own.
+ *
+ * A unit renders to exactly the text a rendering of the whole ontology
+ * writes between its two points, except that its arbitrary numbers start
+ * again from 1. Which axioms the units before it have written is worked out
+ * from the signature, not by going through those units, so a unit late in
+ * the ontology costs no more than one early in it. The renderer records
+ * where each arbitrary number is in the unit's text, and
+ * {@link #renumbering(Reader, long[], int)} shifts them as the units are
+ * read back in order.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import static org.semanticweb.owlapi.model.parameters.Imports.EXCLUDED;
+import static org.semanticweb.owlapi.util.CollectionFactory.sortOptionally;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import edu.buffalo.bmi.csneps.ConversionProgress.Phase;
+
+public final class RenderUnit {
+
+    private final RenderCheckpoint start;
+    private final RenderCheckpoint end;
+    private long[] arbitraryOffsets = new long[16];
+    private int arbitraryCount;
+    private int idsUsed;
+
+    /**
+     * @param start
+     *        the point the unit starts at
+     * @param end
+     *        the point the next unit starts at
+     */
+    public RenderUnit(@Nonnull RenderCheckpoint start,
+            @Nonnull RenderCheckpoint end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Splits the rendering of an ontology into units of about the same
+     * number of axioms. The leftover axioms, which are not written with any
+     * entity, are a unit of their own.
+     *
+     * @param ontology
+     *        the ontology, prepared as it will be rendered
+     * @param count
+     *        the number of units wanted
+     * @return the units, in output order
+     */
+    @Nonnull
+    public static List<RenderUnit> plan(@Nonnull OWLOntology ontology,
+            int count) {
+        List<OWLEntity> signature = sortOptionally(ontology.getSignature());
+        int n = signature.size();
+        long[] weights = new long[2 * n];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            OWLEntity entity = signature.get(i);
+            weights[i] = 1 + ontology.getDeclarationAxioms(entity).size();
+            weights[n + i] = 1
+                    + ontology.getReferencingAxioms(entity, EXCLUDED).size()
+                    + ontology.getAnnotationAssertionAxioms(entity.getIRI())
+                            .size();
+            total += weights[i] + weights[n + i];
+        }
+        List<RenderUnit> units = new ArrayList<>();
+        RenderCheckpoint from = point(0, n);
+        int parts = Math.max(1, count - 1);
+        long sum = 0;
+        for (int k = 0; k + 1 < 2 * n && units.size() < parts - 1; k++) {
+            sum += weights[k];
+            if (sum * parts >= total * (units.size() + 1)) {
+                RenderCheckpoint to = point(k + 1, n);
+                units.add(new RenderUnit(from, to));
+                from = to;
+            }
+        }
+        if (count > 1) {
+            RenderCheckpoint leftovers = new RenderCheckpoint(
+                    Phase.LEFTOVER_AXIOMS, 0, 0, n);
+            units.add(new RenderUnit(from, leftovers));
+            from = leftovers;
+        }
+        units.add(new RenderUnit(from, new RenderCheckpoint(Phase.DONE, 0, 0,
+                n)));
+        return units;
+    }
+
+    /**
+     * @return the k-th entity position over the declarations and then the
+     *         entity axioms
+     */
+    @Nonnull
+    private static RenderCheckpoint point(int k, int n) {
+        return k < n ? new RenderCheckpoint(Phase.DECLARATIONS, k, 0, n)
+                : new RenderCheckpoint(Phase.ENTITY_AXIOMS, k - n, 0, n);
+    }
+
+    @Nonnull
+    public RenderCheckpoint getStart() {
+        return start;
+    }
+
+    @Nonnull
+    public RenderCheckpoint getEnd() {
+        return end;
+    }
+
+    /**
+     * @return true if the unit renders the given entity in the given phase
+     */
+    boolean contains(@Nonnull Phase phase, int i) {
+        return !start.covers(phase, i) && end.covers(phase, i);
+    }
+
+    /**
+     * @return true if the unit starts with the ontology header
+     */
+    boolean hasHeader() {
+        return !start.covers(Phase.DECLARATIONS, 0);
+    }
+
+    /**
+     * Records an arbitrary number as it is written.
+     *
+     * @param offset
+     *        the offset of its first digit in the unit's text, in chars
+     */
+    void addArbitrary(long offset) {
+        if (arbitraryCount == arbitraryOffsets.length) {
+            arbitraryOffsets = Arrays.copyOf(arbitraryOffsets,
+                    arbitraryCount * 2);
+        }
+        arbitraryOffsets[arbitraryCount++] = offset;
+    }
+
+    void setIdsUsed(int idsUsed) {
+        this.idsUsed = idsUsed;
+    }
+
+    /**
+     * @return how many arbitrary numbers the rendered unit uses
+     */
+    public int getIdsUsed() {
+        return idsUsed;
+    }
+
+    /**
+     * @return the offset of each arbitrary number in the rendered unit's
+     *         text, in chars and in text order
+     */
+    @Nonnull
+    public long[] getArbitraryOffsets() {
+        return Arrays.copyOf(arbitraryOffsets, arbitraryCount);
+    }
+
+    /**
+     * Reads a rendered unit's text with a base added to each of its
+     * arbitrary numbers, so units can be put back together as they are
+     * read.
+     *
+     * @param in
+     *        the unit's text
+     * @param offsets
+     *        the offsets of its arbitrary numbers, as recorded when it was
+     *        rendered
+     * @param base
+     *        the number of arbitraries used by the units before it
+     * @return a reader over the renumbered text
+     */
+    @Nonnull
+    public static Reader renumbering(@Nonnull Reader in,
+            @Nonnull long[] offsets, int base) {
+        return new RenumberingReader(in, offsets, base);
+    }
+
+    @Override
+    public String toString() {
+        return start + " to " + end;
+    }
+
+    private static final class RenumberingReader extends Reader {
+
+        private final Reader in;
+        private final long[] offsets;
+        private final int base;
+        private final char[] buf = new char[8192];
+        private int bufPos;
+        private int bufEnd;
+        /** Offset in the unit's text of the next char in buf. */
+        private long pos;
+        private int next;
+        /** A renumbered arbitrary still to be passed on. */
+        private String number;
+        private int numberPos;
+
+        RenumberingReader(Reader in, long[] offsets, int base) {
+            this.in = in;
+            this.offsets = offsets;
+            this.base = base;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = 0;
+            while (n < len) {
+                if (number != null) {
+                    int m = Math.min(len - n, number.length() - numberPos);
+                    number.getChars(numberPos, numberPos + m, cbuf, off + n);
+                    n += m;
+                    numberPos += m;
+                    if (numberPos == number.length()) {
+                        number = null;
+                    }
+                    continue;
+                }
+                int c = nextChar();
+                if (c < 0) {
+                    break;
+                }
+                if (next < offsets.length && pos - 1 == offsets[next]) {
+                    next++;
+                    int value = c - '0';
+                    while (peekChar() >= '0' && peekChar() <= '9') {
+                        value = value * 10 + nextChar() - '0';
+                    }
+                    number = Integer.toString(base + value);
+                    numberPos = 0;
+                    continue;
+                }
+                cbuf[off + n++] = (char) c;
+            }
+            return n == 0 && len > 0 ? -1 : n;
+        }
+
+        private int nextChar() throws IOException {
+            if (peekChar() < 0) {
+                return -1;
+            }
+            pos++;
+            return buf[bufPos++];
+        }
+
+        private int peekChar() throws IOException {
+            while (bufPos == bufEnd) {
+                bufEnd = in.read(buf);
+                bufPos = 0;
+                if (bufEnd < 0) {
+                    bufEnd = 0;
+                    return -1;
+                }
+            }
+            return buf[bufPos];
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
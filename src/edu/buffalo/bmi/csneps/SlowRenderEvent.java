@@ -0,0 +1,39 @@
+/**
+ * Flight Recorder event for a single entity or leftover axiom that took
+ * longer than the event's threshold to render.
+ *
+ * The threshold defaults to 20 ms and is set like that of any JFR event,
+ * in the recording's settings. The subject is only turned into text for
+ * renderings that are over the threshold while a recording is running.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("edu.buffalo.bmi.csneps.SlowRender")
+@Label("Slow Render")
+@Category("CSNePS Converter")
+@Description("An entity or axiom that took longer than the threshold to render")
+@Threshold("20 ms")
+public class SlowRenderEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Subject")
+    @Description("The entity's IRI, or the start of the axiom")
+    public String subject;
+
+    @Label("Axioms")
+    @Description("Axioms rendered for the subject")
+    public long axioms;
+
+    @Label("Characters")
+    @Description("Characters of CSNePS rendered for the subject")
+    public long chars;
+}
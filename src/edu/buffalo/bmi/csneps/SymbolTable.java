@@ -0,0 +1,159 @@
+/**
+ * Short generated symbols standing in for entity IRIs in the output.
+ *
+ * Each entity that is not built in gets an underscore followed by a base-36
+ * number, assigned in IRI order so that the same signature always gives
+ * the same symbols. The dictionary file has one {@code symbol<TAB>IRI} line
+ * per symbol; {@link #read(File)} loads it back for mapping the symbols in
+ * a knowledge base to their IRIs.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+public class SymbolTable {
+
+    private final Map<IRI, String> symbols = new HashMap<>();
+    private final Map<String, IRI> iris = new HashMap<>();
+    private final List<IRI> order = new ArrayList<>();
+    private long fingerprint = 0xcbf29ce484222325L;
+
+    /**
+     * Assigns a symbol to every IRI of the ontology's signature that is not
+     * built in.
+     *
+     * @param ontology
+     *        the ontology to be rendered
+     * @return the symbols
+     */
+    @Nonnull
+    public static SymbolTable build(@Nonnull OWLOntology ontology) {
+        TreeSet<IRI> sorted = new TreeSet<>();
+        for (OWLEntity entity : ontology.getSignature()) {
+            if (!entity.isBuiltIn()) {
+                sorted.add(entity.getIRI());
+            }
+        }
+        SymbolTable table = new SymbolTable();
+        for (IRI iri : sorted) {
+            table.add("_" + Integer.toString(table.order.size(), 36), iri);
+        }
+        return table;
+    }
+
+    /**
+     * Loads a dictionary file.
+     *
+     * @param file
+     *        the dictionary
+     * @return the symbols it defines
+     * @throws IOException
+     *         if the file cannot be read or is malformed
+     */
+    @Nonnull
+    public static SymbolTable read(@Nonnull File file) throws IOException {
+        SymbolTable table = new SymbolTable();
+        for (String line : Files.readAllLines(file.toPath(),
+                StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+                throw new IOException("Malformed dictionary line: " + line);
+            }
+            table.add(line.substring(0, tab),
+                    IRI.create(line.substring(tab + 1)));
+        }
+        return table;
+    }
+
+    private void add(String symbol, IRI iri) {
+        symbols.put(iri, symbol);
+        iris.put(symbol, iri);
+        order.add(iri);
+        String s = iri.toString();
+        for (int i = 0; i < s.length(); i++) {
+            fingerprint = (fingerprint ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        fingerprint = (fingerprint ^ '\n') * 0x100000001b3L;
+    }
+
+    /**
+     * @param iri
+     *        an IRI
+     * @return its symbol, or null if it has none
+     */
+    public String getSymbol(@Nonnull IRI iri) {
+        return symbols.get(iri);
+    }
+
+    /**
+     * @param symbol
+     *        a symbol
+     * @return the IRI it stands for, or null if it is not in the table
+     */
+    public IRI getIRI(@Nonnull String symbol) {
+        return iris.get(symbol);
+    }
+
+    /**
+     * @return the IRIs with symbols, in the order the symbols were assigned
+     */
+    @Nonnull
+    public List<IRI> getIRIs() {
+        return Collections.unmodifiableList(order);
+    }
+
+    public int size() {
+        return order.size();
+    }
+
+    /**
+     * @return a hash of the IRIs in assignment order, which identifies the
+     *         symbols given to them
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Writes the dictionary file.
+     *
+     * @param file
+     *        the file to write
+     * @throws IOException
+     *         if the file cannot be written
+     */
+    public void write(@Nonnull File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for (IRI iri : order) {
+                out.write(symbols.get(iri));
+                out.write('\t');
+                out.write(iri.toString());
+                out.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * The set of axioms a renderer has already written.
+ *
+ * Axioms are kept in an ordinary hash set until the memory budget is
+ * exceeded. The set then moves to a table of 128-bit axiom fingerprints in
+ * a memory-mapped temporary file, so that the operating system rather than
+ * the Java heap holds it. The table is mapped in segments of up to a
+ * gigabyte, so it can grow past what one mapping allows. Lookups in that
+ * mode are slower (each one fingerprints the axiom) but the conversion can
+ * carry on.
+ *
+ * Once spilled, the set can no longer be iterated.
+ */
+
+package edu.buffalo.bmi.csneps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLRuntimeException;
+
+public class WrittenAxiomSet extends AbstractSet<OWLAxiom> {
+
+    private static final int SLOT_BYTES = 16;
+    private static final int SEGMENT_BITS = 30;
+    private static final int SLOTS_PER_SEGMENT = (1 << SEGMENT_BITS) / SLOT_BYTES;
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final MemoryBudget budget;
+    private Set<OWLAxiom> axioms = new HashSet<>();
+    private int sinceCheck;
+
+    private MappedByteBuffer[] table;
+    private File tableFile;
+    private long slots;
+    private long size;
+    private MessageDigest digest;
+
+    /**
+     * @param budget
+     *        the budget to watch, or null to never spill
+     */
+    public WrittenAxiomSet(MemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return true if the set has moved off the heap
+     */
+    public boolean isSpilled() {
+        return axioms == null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof OWLAxiom)) {
+            return false;
+        }
+        if (axioms != null) {
+            return axioms.contains(o);
+        }
+        long[] fp = fingerprint((OWLAxiom) o);
+        return findSlot(fp[0], fp[1]) >= 0;
+    }
+
+    @Override
+    public boolean add(OWLAxiom ax) {
+        if (axioms != null) {
+            boolean added = axioms.add(ax);
+            if (added && budget != null && ++sinceCheck >= CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if (budget.isExceeded()) {
+                    spill();
+                }
+            }
+            return added;
+        }
+        long[] fp = fingerprint(ax);
+        return insert(fp[0], fp[1]);
+    }
+
+    @Override
+    public int size() {
+        return axioms != null ? axioms.size()
+                : (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<OWLAxiom> iterator() {
+        if (axioms == null) {
+            throw new UnsupportedOperationException(
+                    "Written axioms have been spilled to disk");
+        }
+        return axioms.iterator();
+    }
+
+    /**
+     * Releases the temporary file backing a spilled set.
+     */
+    public void dispose() {
+        table = null;
+        if (tableFile != null) {
+            tableFile.delete();
+            tableFile = null;
+        }
+    }
+
+    private void spill() {
+        allocate(Math.max(1 << 16, Long.highestOneBit(axioms.size()) << 2));
+        Set<OWLAxiom> old = axioms;
+        axioms = null;
+        for (OWLAxiom ax : old) {
+            long[] fp = fingerprint(ax);
+            insert(fp[0], fp[1]);
+        }
+    }
+
+    private void allocate(long newSlots) {
+        File file = null;
+        try {
+            file = File.createTempFile("csneps-written", ".tbl");
+            file.deleteOnExit();
+            long bytes = newSlots * SLOT_BYTES;
+            table = new MappedByteBuffer[(int) (((bytes - 1) >> SEGMENT_BITS) + 1)];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                for (int i = 0; i < table.length; i++) {
+                    long start = (long) i << SEGMENT_BITS;
+                    table[i] = raf.getChannel().map(
+                            FileChannel.MapMode.READ_WRITE, start,
+                            Math.min(1L << SEGMENT_BITS, bytes - start));
+                }
+            }
+        } catch (IOException e) {
+            throw new OWLRuntimeException(e);
+        }
+        if (tableFile != null) {
+            tableFile.delete();
+        }
+        tableFile = file;
+        slots = newSlots;
+        size = 0;
+    }
+
+    private boolean insert(long hi, long lo) {
+        if (hi == 0 && lo == 0) {
+            lo = 1;
+        }
+        long slot = probe(hi, lo);
+        if (getLong(table, slot, 0) != 0 || getLong(table, slot, 8) != 0) {
+            return false;
+        }
+        putLong(slot, 0, hi);
+        putLong(slot, 8, lo);
+        if (++size * 2 > slots) {
+            grow();
+        }
+        return true;
+    }
+
+    private long findSlot(long hi, long lo) {
+        if (hi == 0 && lo == 0) {
+            lo = 1;
+        }
+        long slot = probe(hi, lo);
+        return getLong(table, slot, 0) == hi && getLong(table, slot, 8) == lo
+                ? slot : -1;
+    }
+
+    /**
+     * @return the slot holding the fingerprint, or the empty slot where it
+     *         would go
+     */
+    private long probe(long hi, long lo) {
+        long mask = slots - 1;
+        long slot = (hi ^ (hi >>> 32)) & mask;
+        while (true) {
+            long h = getLong(table, slot, 0);
+            long l = getLong(table, slot, 8);
+            if ((h == 0 && l == 0) || (h == hi && l == lo)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        MappedByteBuffer[] old = table;
+        long oldSlots = slots;
+        File oldFile = tableFile;
+        tableFile = null;
+        allocate(oldSlots << 1);
+        for (long i = 0; i < oldSlots; i++) {
+            long h = getLong(old, i, 0);
+            long l = getLong(old, i, 8);
+            if (h != 0 || l != 0) {
+                insert(h, l);
+            }
+        }
+        oldFile.delete();
+    }
+
+    /**
+     * Reads half of a slot. Segments hold a whole number of slots, so a
+     * slot never spans two of them.
+     */
+    private static long getLong(MappedByteBuffer[] segments, long slot,
+            int half) {
+        return segments[(int) (slot / SLOTS_PER_SEGMENT)].getLong(
+                (int) (slot % SLOTS_PER_SEGMENT) * SLOT_BYTES + half);
+    }
+
+    private void putLong(long slot, int half, long value) {
+        table[(int) (slot / SLOTS_PER_SEGMENT)].putLong(
+                (int) (slot % SLOTS_PER_SEGMENT) * SLOT_BYTES + half, value);
+    }
+
+    /**
+     * Computes a 128-bit fingerprint of an axiom from its functional syntax
+     * form, which is stable across runs.
+     *
+     * @param ax
+     *        the axiom
+     * @return the fingerprint as two longs
+     */
+    @Nonnull
+    long[] fingerprint(@Nonnull OWLAxiom ax) {
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new OWLRuntimeException(e);
+            }
+        }
+        byte[] d = digest.digest(ax.toString().getBytes(StandardCharsets.UTF_8));
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < 8; i++) {
+            hi = (hi << 8) | (d[i] & 0xff);
+            lo = (lo << 8) | (d[i + 8] & 0xff);
+        }
+        return new long[] { hi, lo };
+    }
+}